@@ -0,0 +1,112 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.RouteWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.solution.WorkshopRoute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Many more workers than stations keep walking the same line of five stations,
+ * once as a plain route, so all of them queue inside the workshop, and once as
+ * an assembly line. Two more workers keep dropping in at a random station
+ * for a single use, with a pause outside in between. It reports the lines
+ * walked per second and the mean time the other two took to enter.
+ *
+ * Usage: AssemblyLineBenchmark [engine] [workers] [use nanos] [walks]
+ */
+public class AssemblyLineBenchmark {
+    private static final int STATIONS = 5;
+    private static final int VISITORS = 2;
+    private static final long PAUSE_NANOS = 50_000;
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.STRIPED;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long useNanos = args.length > 2 ? Long.parseLong(args[2]) : 2_000;
+        int walks = args.length > 3 ? Integer.parseInt(args[3]) : 5_000;
+
+        System.out.println(engine + ", " + workers + " workers on a line of " + STATIONS + " stations, "
+                + useNanos + "ns of use, " + walks + " walks each:");
+        // The first round only warms up.
+        for (int round = 0; round < 2; round++) {
+            for (boolean line : new boolean[] {false, true}) {
+                run(engine, workers, useNanos, walks, line, round > 0);
+            }
+        }
+    }
+
+    private static void run(WorkshopEngine engine, int workers, long useNanos, int walks,
+                            boolean line, boolean print) {
+        List<Workplace> workplaces = BenchmarkWorkplace.create(STATIONS, useNanos, true);
+        List<WorkplaceId> stations = new ArrayList<>(STATIONS);
+        for (Workplace workplace : workplaces) {
+            stations.add(workplace.getId());
+        }
+        RouteWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        WorkshopRoute route = line ? workshop.newAssemblyLine(stations) : workshop.newRoute(stations);
+        CyclicBarrier start = new CyclicBarrier(workers + VISITORS);
+        AtomicLong walkers = new AtomicLong(workers);
+        AtomicLong enterNanos = new AtomicLong(0);
+        AtomicLong visits = new AtomicLong(0);
+        Thread[] threads = new Thread[workers + VISITORS];
+        for (int i = 0; i < workers; i++) {
+            threads[i] = new Thread(() -> {
+                await(start);
+                for (int w = 0; w < walks; w++) {
+                    route.walk();
+                }
+                walkers.decrementAndGet();
+            }, "Line worker " + i);
+        }
+        for (int i = workers; i < workers + VISITORS; i++) {
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                await(start);
+                while (walkers.get() > 0) {
+                    long before = System.nanoTime();
+                    Workplace workplace = workshop.enter(stations.get(random.nextInt(STATIONS)));
+                    enterNanos.addAndGet(System.nanoTime() - before);
+                    visits.incrementAndGet();
+                    workplace.use();
+                    workshop.leave();
+                    LockSupport.parkNanos(PAUSE_NANOS);
+                }
+            }, "Visiting worker " + i);
+        }
+        long before = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+        }
+        long nanos = System.nanoTime() - before;
+        if (print) {
+            System.out.printf("  %-14s %8.0f lines per second, others entered in %7.1fus on average%n",
+                    line ? "assembly line" : "route", (double) workers * walks * 1e9 / nanos,
+                    visits.get() == 0 ? 0 : enterNanos.get() / 1e3 / visits.get());
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+class BenchmarkWorkplace extends Workplace {
+    private final long useNanos;
+    // Busy workplaces keep the worker on its core for the whole use, like a
+    // short computation would; parking cannot sleep for only a few microseconds.
+    private final boolean busy;
+
+    BenchmarkWorkplace(int id, long useNanos, boolean busy) {
+        super(new BenchmarkWorkplaceId(id));
+        this.useNanos = useNanos;
+        this.busy = busy;
+    }
+
+    @Override
+    public void use() {
+        if (this.useNanos <= 0) {
+            return;
+        }
+        if (!this.busy) {
+            LockSupport.parkNanos(this.useNanos);
+            return;
+        }
+        long deadline = System.nanoTime() + this.useNanos;
+        while (System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    static List<Workplace> create(int count, long useNanos) {
+        return create(count, useNanos, false);
+    }
+
+    static List<Workplace> create(int count, long useNanos, boolean busy) {
+        List<Workplace> workplaces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            workplaces.add(new BenchmarkWorkplace(i, useNanos, busy));
+        }
+        return workplaces;
+    }
+}
@@ -0,0 +1,26 @@
+package cp2022.benchmarks;
+
+import cp2022.base.WorkplaceId;
+
+class BenchmarkWorkplaceId extends WorkplaceId {
+    private final int id;
+
+    BenchmarkWorkplaceId(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public int compareTo(WorkplaceId other) {
+        return Integer.compare(this.id, ((BenchmarkWorkplaceId) other).id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof BenchmarkWorkplaceId && ((BenchmarkWorkplaceId) other).id == this.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(this.id);
+    }
+}
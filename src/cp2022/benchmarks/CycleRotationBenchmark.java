@@ -0,0 +1,89 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.Workshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/*
+ * K workers sit on K workplaces and keep moving one workplace forward, so
+ * every round is one K-cycle that the workshop has to rotate. After a warm-up
+ * the bytes allocated by the worker threads are read from the JVM's per-thread
+ * allocation counters, which HotSpot provides through com.sun.management.
+ *
+ * Usage: CycleRotationBenchmark [engine] [members] [rotations]
+ */
+public class CycleRotationBenchmark {
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.GLOBAL;
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rotations = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            throw new RuntimeException("panic: per-thread allocation counters are not available");
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+        List<Workplace> workplaces = BenchmarkWorkplace.create(members, 0);
+        Workshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        CyclicBarrier measure = new CyclicBarrier(members);
+        long[] allocated = new long[members];
+        long[] nanos = new long[members];
+        Thread[] workers = new Thread[members];
+        for (int i = 0; i < members; i++) {
+            int first = i;
+            workers[i] = new Thread(() -> {
+                int position = first;
+                Workplace workplace = workshop.enter(workplaces.get(position).getId());
+                // Both halves run the same loop; only the second one is measured.
+                for (int half = 0; half < 2; half++) {
+                    await(measure);
+                    long bytes = allocations.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    for (int r = 0; r < rotations; r++) {
+                        position = (position + 1) % members;
+                        workplace = workshop.switchTo(workplaces.get(position).getId());
+                        workplace.use();
+                    }
+                    allocated[first] = allocations.getCurrentThreadAllocatedBytes() - bytes;
+                    nanos[first] = System.nanoTime() - start;
+                }
+                workshop.leave();
+            }, "Rotating worker " + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+        }
+
+        long totalBytes = 0;
+        long slowest = 0;
+        for (int i = 0; i < members; i++) {
+            totalBytes += allocated[i];
+            slowest = Math.max(slowest, nanos[i]);
+        }
+        System.out.println(engine + ", " + members + "-cycle, " + rotations + " rotations:");
+        System.out.printf("  %.3f bytes allocated per rotation (%d in total)%n",
+                (double) totalBytes / rotations, totalBytes);
+        System.out.printf("  %.0f rotations per second%n", rotations * 1e9 / slowest);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
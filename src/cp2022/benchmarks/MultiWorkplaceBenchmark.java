@@ -0,0 +1,165 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.MultiWorkplaceWorkshop;
+import cp2022.solution.SessionWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.solution.WorkshopSession;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Twice as many workers as workplaces keep taking two random workplaces,
+ * using both and leaving. They take them with enterAll, or the naive way, one
+ * after the other in the order of their ids while holding the first: with a
+ * plain lock per workplace, next to the workshop, or through the workshop with
+ * two sessions. The last one can deadlock, as an entry holding a workplace may
+ * wait for admission behind a worker waiting for that workplace; it is
+ * reported as stuck if it does not finish in time. The time to get both
+ * workplaces is recorded for every pair.
+ *
+ * Usage: MultiWorkplaceBenchmark [engine] [workplaces] [use nanos] [pairs]
+ */
+public class MultiWorkplaceBenchmark {
+    private static final long TIME_LIMIT_SECONDS = 30;
+
+    private enum Mode {
+        LOCKS("ordered locks"),
+        SESSIONS("ordered enters"),
+        ENTER_ALL("enterAll");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+    }
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.STRIPED;
+        int workplaceCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long useNanos = args.length > 2 ? Long.parseLong(args[2]) : 20_000;
+        int pairs = args.length > 3 ? Integer.parseInt(args[3]) : 2_000;
+
+        System.out.println(engine + ", " + workplaceCount + " workplaces, " + 2 * workplaceCount
+                + " workers, " + useNanos + "ns of use, " + pairs + " pairs each:");
+        // The first round only warms up.
+        for (int round = 0; round < 2; round++) {
+            for (Mode mode : Mode.values()) {
+                run(engine, workplaceCount, useNanos, pairs, mode, round > 0);
+            }
+        }
+    }
+
+    private static void run(WorkshopEngine engine, int workplaceCount, long useNanos, int pairs,
+                            Mode mode, boolean print) {
+        List<Workplace> workplaces = BenchmarkWorkplace.create(workplaceCount, useNanos);
+        MultiWorkplaceWorkshop multiWorkshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        SessionWorkshop sessionWorkshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        ReentrantLock[] locks = new ReentrantLock[workplaceCount];
+        for (int i = 0; i < workplaceCount; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        int workers = 2 * workplaceCount;
+        CyclicBarrier start = new CyclicBarrier(workers);
+        long[][] latencies = new long[workers][pairs];
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            int worker = i;
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                WorkshopSession first = sessionWorkshop.newSession();
+                WorkshopSession second = sessionWorkshop.newSession();
+                await(start);
+                for (int p = 0; p < pairs; p++) {
+                    int x = random.nextInt(workplaceCount);
+                    int y = x;
+                    while (y == x) {
+                        y = random.nextInt(workplaceCount);
+                    }
+                    WorkplaceId a = workplaces.get(x).getId();
+                    WorkplaceId b = workplaces.get(y).getId();
+                    if (a.compareTo(b) > 0) {
+                        int k = x;
+                        x = y;
+                        y = k;
+                    }
+                    long before = System.nanoTime();
+                    if (mode == Mode.ENTER_ALL) {
+                        List<Workplace> held = multiWorkshop.enterAll(List.of(a, b));
+                        latencies[worker][p] = System.nanoTime() - before;
+                        held.get(0).use();
+                        held.get(1).use();
+                        multiWorkshop.leave();
+                    } else if (mode == Mode.SESSIONS) {
+                        Workplace lower = first.enter(workplaces.get(x).getId());
+                        Workplace higher = second.enter(workplaces.get(y).getId());
+                        latencies[worker][p] = System.nanoTime() - before;
+                        lower.use();
+                        higher.use();
+                        second.leave();
+                        first.leave();
+                    } else {
+                        locks[x].lock();
+                        locks[y].lock();
+                        latencies[worker][p] = System.nanoTime() - before;
+                        workplaces.get(x).use();
+                        workplaces.get(y).use();
+                        locks[y].unlock();
+                        locks[x].unlock();
+                    }
+                }
+            }, "Pairing worker " + i);
+            threads[i].setDaemon(true);
+        }
+        long before = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIME_LIMIT_SECONDS);
+        boolean stuck = false;
+        for (Thread thread : threads) {
+            try {
+                TimeUnit.NANOSECONDS.timedJoin(thread, Math.max(1, deadline - System.nanoTime()));
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+            stuck |= thread.isAlive();
+        }
+        long nanos = System.nanoTime() - before;
+        if (!print) {
+            return;
+        }
+        if (stuck) {
+            // The stuck workers are daemons and stay behind.
+            System.out.printf("  %-14s stuck for %ds%n", mode.label, TIME_LIMIT_SECONDS);
+            return;
+        }
+
+        long[] all = new long[workers * pairs];
+        for (int i = 0; i < workers; i++) {
+            System.arraycopy(latencies[i], 0, all, i * pairs, pairs);
+        }
+        Arrays.sort(all);
+        double mean = Arrays.stream(all).average().orElse(0);
+        System.out.printf("  %-14s mean %8.1fus, p99 %8.1fus, max %9.1fus, %8.0f pairs per second%n",
+                mode.label, mean / 1e3, all[all.length * 99 / 100] / 1e3,
+                all[all.length - 1] / 1e3, (double) all.length * 1e9 / nanos);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.RouteWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.solution.WorkshopRoute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/*
+ * Like the DIY fans of TroysWorkshop, every worker keeps walking a fixed route
+ * of a few stations out of five: it enters at the first, uses each one, switches
+ * to the next and leaves after the last. The same routes are walked once with
+ * a call per step and once as WorkshopRoutes, and the routes completed per
+ * second are compared. Uses are short busy work, so the workshop's own cost
+ * between the steps shows.
+ *
+ * Usage: RouteBenchmark [engine] [workers] [use nanos] [walks]
+ */
+public class RouteBenchmark {
+    private static final int STATIONS = 5;
+    private static final int MIN_ROUTE = 3;
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.STRIPED;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long useNanos = args.length > 2 ? Long.parseLong(args[2]) : 1_000;
+        int walks = args.length > 3 ? Integer.parseInt(args[3]) : 50_000;
+
+        List<Workplace> workplaces = BenchmarkWorkplace.create(STATIONS, useNanos, true);
+        List<List<WorkplaceId>> routes = new ArrayList<>(workers);
+        Random random = new Random(workers);
+        for (int i = 0; i < workers; i++) {
+            List<WorkplaceId> stations = new ArrayList<>(STATIONS);
+            for (Workplace workplace : workplaces) {
+                stations.add(workplace.getId());
+            }
+            Collections.shuffle(stations, random);
+            routes.add(stations.subList(0, MIN_ROUTE + random.nextInt(STATIONS - MIN_ROUTE + 1)));
+        }
+
+        System.out.println(engine + ", " + workers + " workers on " + STATIONS + " stations, " + useNanos
+                + "ns of use, " + walks + " walks each:");
+        // The first round only warms up.
+        for (int round = 0; round < 2; round++) {
+            double steps = run(engine, workplaces, routes, walks, false);
+            double walked = run(engine, workplaces, routes, walks, true);
+            if (round > 0) {
+                System.out.printf("  %-10s %9.0f routes per second%n", "switchTo", steps);
+                System.out.printf("  %-10s %9.0f routes per second%n", "walk", walked);
+            }
+        }
+    }
+
+    private static double run(WorkshopEngine engine, List<Workplace> workplaces,
+                              List<List<WorkplaceId>> routes, int walks, boolean walking) {
+        RouteWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        int workers = routes.size();
+        CyclicBarrier start = new CyclicBarrier(workers);
+        long[] nanos = new long[workers];
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            int worker = i;
+            List<WorkplaceId> stations = routes.get(i);
+            threads[i] = new Thread(() -> {
+                WorkshopRoute route = workshop.newRoute(stations);
+                await(start);
+                long before = System.nanoTime();
+                for (int w = 0; w < walks; w++) {
+                    if (walking) {
+                        route.walk();
+                        continue;
+                    }
+                    workshop.enter(stations.get(0)).use();
+                    for (int s = 1; s < stations.size(); s++) {
+                        workshop.switchTo(stations.get(s)).use();
+                    }
+                    workshop.leave();
+                }
+                nanos[worker] = System.nanoTime() - before;
+            }, "Route worker " + i);
+            threads[i].start();
+        }
+        long slowest = 0;
+        for (int i = 0; i < workers; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+            slowest = Math.max(slowest, nanos[i]);
+        }
+        return (double) walks * workers * 1e9 / slowest;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.Workshop;
+import cp2022.solution.WaitStrategy;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Twice as many workers as workplaces keep switching to a random workplace and
+ * using it for a few microseconds of busy work, so most switches wait for a
+ * holder that is about to leave. The latency of every switchTo is recorded,
+ * once with waiters parking at once and once spinning first. Spinning can only
+ * win when the holder runs on another core, so compare on a multi-core host.
+ *
+ * Usage: ShortUseLatencyBenchmark [engine] [workplaces] [use nanos] [switches]
+ */
+public class ShortUseLatencyBenchmark {
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.STRIPED;
+        int workplaceCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long useNanos = args.length > 2 ? Long.parseLong(args[2]) : 5_000;
+        int switches = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+
+        System.out.println(engine + ", " + workplaceCount + " workplaces, " + 2 * workplaceCount
+                + " workers, " + useNanos + "ns of use, " + switches + " switches each, "
+                + Runtime.getRuntime().availableProcessors() + " processors:");
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            run(engine, waitStrategy, workplaceCount, useNanos, switches);
+        }
+    }
+
+    private static void run(WorkshopEngine engine, WaitStrategy waitStrategy,
+                            int workplaceCount, long useNanos, int switches) {
+        List<Workplace> workplaces = BenchmarkWorkplace.create(workplaceCount, useNanos, true);
+        Workshop workshop = WorkshopFactory.newWorkshop(workplaces, engine, waitStrategy);
+        int workers = 2 * workplaceCount;
+        CyclicBarrier start = new CyclicBarrier(workers);
+        long[][] latencies = new long[workers][switches];
+        long[] nanos = new long[workers];
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            int worker = i;
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                await(start);
+                Workplace workplace = workshop.enter(workplaces.get(worker % workplaceCount).getId());
+                // Half of the workers wait in enter at first, so nobody can wait for
+                // the others once inside; the first half of the switches is a warm-up.
+                long measuredFrom = 0;
+                for (int s = -switches; s < switches; s++) {
+                    if (s == 0) {
+                        measuredFrom = System.nanoTime();
+                    }
+                    long before = System.nanoTime();
+                    workplace = workshop.switchTo(workplaces.get(random.nextInt(workplaceCount)).getId());
+                    if (s >= 0) {
+                        latencies[worker][s] = System.nanoTime() - before;
+                    }
+                    workplace.use();
+                }
+                nanos[worker] = System.nanoTime() - measuredFrom;
+                workshop.leave();
+            }, "Switching worker " + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+        }
+
+        long[] all = new long[workers * switches];
+        long slowest = 0;
+        for (int i = 0; i < workers; i++) {
+            System.arraycopy(latencies[i], 0, all, i * switches, switches);
+            slowest = Math.max(slowest, nanos[i]);
+        }
+        Arrays.sort(all);
+        double mean = Arrays.stream(all).average().orElse(0);
+        System.out.printf("  %-15s mean %7.1fus, median %7.1fus, p99 %8.1fus, %8.0f switches per second%n",
+                waitStrategy, mean / 1e3, all[all.length / 2] / 1e3, all[all.length * 99 / 100] / 1e3,
+                (double) all.length * 1e9 / slowest);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.Workshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/*
+ * Pairs of workers keep swapping workplaces, as in TestDeadlockPairManyTimes:
+ * each worker switches to its partner's workplace while the partner switches
+ * to its own, and back. For comparison, rings of three workers keep moving one
+ * workplace forward, which closes a longer cycle on every round. Uses take no
+ * time. It reports the switches per second and their mean latency.
+ *
+ * Usage: SwapBenchmark [engine] [groups] [rounds]
+ */
+public class SwapBenchmark {
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.STRIPED;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        System.out.println(engine + ", " + groups + " groups, " + rounds + " rounds each, "
+                + Runtime.getRuntime().availableProcessors() + " processors:");
+        // The first round only warms up.
+        for (int round = 0; round < 2; round++) {
+            for (int size = 2; size <= 3; size++) {
+                run(engine, groups, size, rounds, round > 0);
+            }
+        }
+    }
+
+    private static void run(WorkshopEngine engine, int groups, int size, int rounds, boolean print) {
+        int workers = groups * size;
+        List<Workplace> workplaces = BenchmarkWorkplace.create(workers, 0);
+        Workshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        CyclicBarrier start = new CyclicBarrier(workers);
+        long[] latencies = new long[workers];
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            int group = i / size;
+            int member = i % size;
+            int worker = i;
+            threads[i] = new Thread(() -> {
+                await(start);
+                Workplace workplace = workshop.enter(workplaces.get(worker).getId());
+                long nanos = 0;
+                for (int r = 0; r < rounds; r++) {
+                    workplace.use();
+                    // A pair goes there and back; a ring keeps going around.
+                    int next = (member + r + 1) % size;
+                    long before = System.nanoTime();
+                    workplace = workshop.switchTo(workplaces.get(group * size + next).getId());
+                    nanos += System.nanoTime() - before;
+                }
+                workplace.use();
+                workshop.leave();
+                latencies[worker] = nanos;
+            }, "Swapping worker " + i);
+        }
+        long before = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+        }
+        long nanos = System.nanoTime() - before;
+        if (!print) {
+            return;
+        }
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        long switches = (long) workers * rounds;
+        System.out.printf("  %-14s %9.0f switches per second, %6.2fus per switch on average%n",
+                size == 2 ? "pairs" : "rings of three", switches * 1e9 / nanos, total / 1e3 / switches);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
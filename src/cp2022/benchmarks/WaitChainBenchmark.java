@@ -0,0 +1,126 @@
+package cp2022.benchmarks;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.TimedWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A chain of workers waits for one another: the worker at workplace i waits
+ * for workplace i + 1, and the last one is held by a worker that does not
+ * move. A prober at a workplace of its own keeps trying to switch to the start
+ * of the chain without waiting, so every try asks whether the switch would
+ * close a cycle, which looks up the root of the chain. One more worker waits
+ * for the prober's workplace, and before every try the prober waits 20us for
+ * yet another workplace and gives up: that cuts an edge others wait behind,
+ * in a tree of its own. Cuts elsewhere should not make the lookups walk the
+ * whole chain again, so a try should not take longer the longer the chain is.
+ * Only the tries are timed.
+ *
+ * Usage: WaitChainBenchmark [engine] [chain length] [tries]
+ */
+public class WaitChainBenchmark {
+
+    public static void main(String[] args) {
+        WorkshopEngine engine = args.length > 0 ? WorkshopEngine.valueOf(args[0]) : WorkshopEngine.STRIPED;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int tries = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        // The chain and the workplace its last worker holds, then the prober's,
+        // the one it gives up on and the one whose worker waits for the prober.
+        List<Workplace> workplaces = BenchmarkWorkplace.create(length + 4, 0);
+        WorkplaceId chainStart = workplaces.get(0).getId();
+        WorkplaceId probe = workplaces.get(length + 1).getId();
+        WorkplaceId held = workplaces.get(length + 2).getId();
+        TimedWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+
+        CountDownLatch entered = new CountDownLatch(length + 3);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread[] holders = new Thread[2];
+        for (int i = 0; i < holders.length; i++) {
+            WorkplaceId wid = workplaces.get(length + 2 * i).getId();
+            holders[i] = new Thread(() -> {
+                workshop.enter(wid);
+                entered.countDown();
+                await(done);
+                workshop.leave();
+            });
+            holders[i].start();
+        }
+        Thread[] chain = new Thread[length];
+        for (int i = 0; i < length; i++) {
+            int position = i;
+            chain[i] = new Thread(() -> {
+                workshop.enter(workplaces.get(position).getId());
+                entered.countDown();
+                await(entered);
+                workshop.switchTo(workplaces.get(position + 1).getId());
+                workshop.leave();
+            });
+            chain[i].start();
+        }
+        workshop.enter(probe);
+        Thread behind = new Thread(() -> {
+            workshop.enter(workplaces.get(length + 3).getId());
+            entered.countDown();
+            workshop.switchTo(probe);
+            workshop.leave();
+        });
+        behind.start();
+        await(entered);
+        // Gives everyone time to queue up; a try that finds the chain incomplete only takes a shorter walk.
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+
+        // Both halves run the same loop; only the second one is measured.
+        long tryNanos = 0;
+        for (int half = 0; half < 2; half++) {
+            tryNanos = 0;
+            for (int t = 0; t < tries; t++) {
+                if (workshop.trySwitchTo(held, 20, TimeUnit.MICROSECONDS) != null) {
+                    throw new RuntimeException("panic: the prober got a held workplace");
+                }
+                long start = System.nanoTime();
+                Workplace got = workshop.trySwitchTo(chainStart, 0, TimeUnit.NANOSECONDS);
+                tryNanos += System.nanoTime() - start;
+                if (got != null) {
+                    throw new RuntimeException("panic: the prober got into the chain");
+                }
+            }
+        }
+        workshop.leave();
+
+        done.countDown();
+        for (Thread thread : holders) {
+            join(thread);
+        }
+        for (Thread thread : chain) {
+            join(thread);
+        }
+        join(behind);
+
+        System.out.println(engine + ", chain of " + length + ", " + tries + " tries:");
+        System.out.printf("  %.0f ns per try%n", (double) tryNanos / tries);
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cp2022.solution;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+
+import java.util.concurrent.CompletableFuture;
+
+// One logical worker of an AsyncWorkshop. Its calls follow the same rules as
+// those of a Workshop worker, with each call made only once the future of the
+// previous one has completed. A future completes when its workplace is granted.
+public interface AsyncWorker {
+
+    public CompletableFuture<Workplace> enterAsync(WorkplaceId wid);
+
+    public CompletableFuture<Workplace> switchToAsync(WorkplaceId wid);
+
+    public CompletableFuture<Void> leaveAsync();
+
+}
@@ -0,0 +1,15 @@
+package cp2022.solution;
+
+import cp2022.base.Workshop;
+
+import java.util.concurrent.Executor;
+
+// A workshop that can also be driven without a thread per waiting worker. Any
+// number of AsyncWorkers may share one executor, which completes the futures of
+// requests that had to wait. It must not run tasks in the submitting thread,
+// as they are submitted from inside the workshop.
+public interface AsyncWorkshop extends Workshop {
+
+    public AsyncWorker newAsyncWorker(Executor executor);
+
+}
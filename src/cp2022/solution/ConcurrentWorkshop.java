@@ -2,242 +2,1818 @@ package cp2022.solution;
 
 import cp2022.base.Workplace;
 import cp2022.base.WorkplaceId;
-import cp2022.base.Workshop;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-public class ConcurrentWorkshop implements Workshop {
+public class ConcurrentWorkshop implements ExtendedWorkshop {
 
-    private final List<WorkplaceWrapper> workplaces;
-    private final Map<Long, Semaphore> threadSemaphores;
-    private final Semaphore mutex;
-    private final int[] whereToSwitch;
-    private final Queue<Long> workshopQueue;
-    private int howManyThreadsAreInWorkshop;
-    private int howManyEnteredNow;
+    // The admission word packs what the lock-free paths of the striped engine check
+    // and update with a single CAS: the number of entries so far (wrapping around),
+    // how many more may happen before the oldest pending request could be overtaken
+    // 2N times, and how many entrants wait to be admitted under the mutex.
+    private static final int ENTRIES_BITS = 24;
+    private static final long ENTRIES_MASK = (1L << ENTRIES_BITS) - 1;
+    private static final int ALLOWANCE_SHIFT = ENTRIES_BITS;
+    private static final long ALLOWANCE_MASK = (1L << 20) - 1;
+    private static final long ONE_ALLOWED = 1L << ALLOWANCE_SHIFT;
+    private static final int WAITING_SHIFT = ALLOWANCE_SHIFT + 20;
+    private static final long ONE_WAITING = 1L << WAITING_SHIFT;
+    // Holds longer than this are not worth spinning for.
+    private static final long MAX_SPIN_NANOS = 50_000;
+    // Longer timeouts are cut down to this, so that deadlines cannot overflow.
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+
+    private final WorkshopEngine engine;
+    private final boolean spinning;
+    private final WorkplaceWrapper[] workplaces;
+    private final WorkplaceIndex<WorkplaceWrapper> index;
+    private final ThreadLocal<Waiter> waiters;
+    private final Mutex mutex;
+    private final WaitForGraph waitFor;
+    private final WaiterQueue workshopQueue;
+    private final AtomicLong admission;
+    // Requests that had to wait, oldest first, and how many entries may overtake one.
+    private final PendingRequests pending;
+    private final long window;
+    // Entries already counted whose entrants still wait for their workplaces.
+    // Written only with the mutex held.
+    private volatile long admittedWaiting;
 
     public ConcurrentWorkshop(Collection<Workplace> workplaces) {
-        this.workplaces = new ArrayList<>();
+        this(workplaces, WorkshopEngine.GLOBAL);
+    }
+
+    public ConcurrentWorkshop(Collection<Workplace> workplaces, WorkshopEngine engine) {
+        this(workplaces, engine, WaitStrategy.PARK);
+    }
+
+    public ConcurrentWorkshop(Collection<Workplace> workplaces, WorkshopEngine engine, WaitStrategy waitStrategy) {
+        this.engine = engine;
+        this.spinning = waitStrategy == WaitStrategy.SPIN_THEN_PARK;
+        this.workplaces = new WorkplaceWrapper[workplaces.size()];
+        int slot = 0;
         for (Workplace workplace : workplaces) {
-            this.workplaces.add(new WorkplaceWrapper(workplace, this));
+            this.workplaces[slot] = new WorkplaceWrapper(workplace, this, slot);
+            slot++;
         }
-        this.threadSemaphores = new ConcurrentHashMap<>();
-        this.mutex = new Semaphore(1, true);
-        this.whereToSwitch = new int[this.workplaces.size()];
-        Arrays.fill(this.whereToSwitch, -1);
-        this.workshopQueue = new ConcurrentLinkedQueue<>();
-        this.howManyThreadsAreInWorkshop = 0;
-        this.howManyEnteredNow = 0;
+        this.index = new WorkplaceIndex<>(Arrays.asList(this.workplaces));
+        this.waiters = ThreadLocal.withInitial(Waiter::new);
+        this.mutex = new Mutex(engine != WorkshopEngine.VIRTUAL);
+        this.waitFor = new WaitForGraph(this.workplaces.length);
+        this.workshopQueue = new WaiterQueue();
+        this.admission = new AtomicLong(0);
+        this.pending = new PendingRequests();
+        this.window = Math.min(2L * this.workplaces.length - 1, ALLOWANCE_MASK);
     }
 
     @Override
     public WorkplaceWrapper enter(WorkplaceId wid) {
-        this.threadSemaphores.putIfAbsent(Thread.currentThread().getId(), new Semaphore(0));
+        return this.enter(this.waiters.get(), wid);
+    }
+
+    @Override
+    public WorkplaceWrapper tryEnter(WorkplaceId wid) {
+        return this.tryEnter(wid, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public WorkplaceWrapper tryEnter(WorkplaceId wid, long timeout, TimeUnit unit) {
+        Waiter me = this.waiters.get();
         WorkplaceWrapper workplaceWrapper = this.getWorkplaceWrapper(wid);
-        workplaceWrapper.enter();
+        if (!this.enter(me, workplaceWrapper, true, deadline(timeout, unit))) {
+            return null;
+        }
+        me.current = workplaceWrapper;
         return workplaceWrapper;
     }
 
     @Override
     public WorkplaceWrapper switchTo(WorkplaceId wid) {
+        return this.switchTo(this.waiters.get(), wid);
+    }
+
+    @Override
+    public WorkplaceWrapper trySwitchTo(WorkplaceId wid) {
+        return this.trySwitchTo(wid, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public WorkplaceWrapper trySwitchTo(WorkplaceId wid, long timeout, TimeUnit unit) {
+        Waiter me = this.waiters.get();
         WorkplaceWrapper workplaceTo = this.getWorkplaceWrapper(wid);
-        try {
-            this.mutex.acquire();
-            WorkplaceWrapper workplaceFrom = this.getWorkplaceWrapper(Thread.currentThread().getId());
-            workplaceFrom.switchTo(workplaceTo);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("panic: unexpected thread interruption");
+        WorkplaceWrapper workplaceFrom = this.getCurrentWorkplace(me);
+        if (!this.switchTo(me, workplaceFrom, workplaceTo, true, deadline(timeout, unit))) {
+            return null;
         }
+        switched(me, workplaceFrom, workplaceTo);
         return workplaceTo;
     }
 
+    // With no real deadline, only an interrupt makes the timed variants give up.
+    @Override
+    public WorkplaceWrapper enterInterruptibly(WorkplaceId wid) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        WorkplaceWrapper workplaceWrapper = this.tryEnter(wid, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (workplaceWrapper == null) {
+            Thread.interrupted();
+            throw new InterruptedException();
+        }
+        return workplaceWrapper;
+    }
+
+    @Override
+    public WorkplaceWrapper switchToInterruptibly(WorkplaceId wid) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        WorkplaceWrapper workplaceWrapper = this.trySwitchTo(wid, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (workplaceWrapper == null) {
+            Thread.interrupted();
+            throw new InterruptedException();
+        }
+        return workplaceWrapper;
+    }
+
     @Override
     public void leave() {
-        try {
-            this.mutex.acquire();
-            WorkplaceWrapper workplaceWrapper = this.getWorkplaceWrapper(Thread.currentThread().getId());
-            workplaceWrapper.leave();
-            this.threadSemaphores.remove(Thread.currentThread().getId());
-        } catch (InterruptedException e) {
-            throw new RuntimeException("panic: unexpected thread interruption");
+        this.leave(this.waiters.get());
+    }
+
+    @Override
+    public AsyncWorker newAsyncWorker(Executor executor) {
+        return new FutureWorker(executor);
+    }
+
+    @Override
+    public List<Workplace> enterAll(Collection<? extends WorkplaceId> wids) {
+        Waiter me = this.waiters.get();
+        WorkplaceWrapper[] targets = this.getWorkplaceWrappers(wids);
+        this.enterAll(me, targets);
+        holdAll(me, targets);
+        return Collections.unmodifiableList(Arrays.asList(targets));
+    }
+
+    @Override
+    public List<Workplace> switchToAll(Collection<? extends WorkplaceId> wids) {
+        Waiter me = this.waiters.get();
+        WorkplaceWrapper[] targets = this.getWorkplaceWrappers(wids);
+        this.switchToAll(me, targets);
+        holdAll(me, targets);
+        return Collections.unmodifiableList(Arrays.asList(targets));
+    }
+
+    @Override
+    public WorkshopSession newSession() {
+        return new WaiterSession();
+    }
+
+    // The crew waits as one request for all of its workplaces, made by its first
+    // member on behalf of the others; they get their workplaces once it has them all.
+    @Override
+    public void enterCrew(Map<? extends WorkshopSession, ? extends WorkplaceId> crew) {
+        List<WorkplaceId> wids = new ArrayList<>(crew.size());
+        Waiter[] members = new Waiter[crew.size()];
+        for (Map.Entry<? extends WorkshopSession, ? extends WorkplaceId> entry : crew.entrySet()) {
+            members[wids.size()] = this.getOutsideMember(entry.getKey());
+            wids.add(entry.getValue());
+        }
+        WorkplaceWrapper[] targets = this.getWorkplaceWrappers(wids);
+        Waiter me = members[0];
+        me.thread = Thread.currentThread();
+        me.crew = members;
+        this.enterAll(me, targets);
+    }
+
+    @Override
+    public WorkshopRoute newRoute(List<? extends WorkplaceId> route) {
+        return new ResolvedRoute(route);
+    }
+
+    @Override
+    public WorkshopRoute newAssemblyLine(List<? extends WorkplaceId> stations) {
+        return new AssemblyLine(stations);
+    }
+
+    private WorkplaceWrapper enter(Waiter me, WorkplaceId wid) {
+        WorkplaceWrapper workplaceWrapper = this.getWorkplaceWrapper(wid);
+        this.enter(me, workplaceWrapper, false, 0);
+        me.current = workplaceWrapper;
+        return workplaceWrapper;
+    }
+
+    private WorkplaceWrapper switchTo(Waiter me, WorkplaceId wid) {
+        WorkplaceWrapper workplaceTo = this.getWorkplaceWrapper(wid);
+        if (me.held != null) {
+            WorkplaceWrapper[] targets = {workplaceTo};
+            this.switchToAll(me, targets);
+            holdAll(me, targets);
+            return workplaceTo;
+        }
+        WorkplaceWrapper workplaceFrom = this.getCurrentWorkplace(me);
+        this.switchTo(me, workplaceFrom, workplaceTo, false, 0);
+        switched(me, workplaceFrom, workplaceTo);
+        return workplaceTo;
+    }
+
+    // Returns whether the entrant got the workplace; see releaseAndAwait for when
+    // it does not. Timed requests always go through the mutex, on every engine: one
+    // that was admitted lock-free and then gave up would have used an entry for
+    // nothing. Counting the entrant as waiting first stops the lock-free entries
+    // from overtaking it on the way.
+    private boolean enter(Waiter me, WorkplaceWrapper workplaceWrapper, boolean timed, long deadline) {
+        this.stampRequest(me);
+        me.returned();
+        if (!this.isStriped() || timed) {
+            this.admission.addAndGet(ONE_WAITING);
+            return workplaceWrapper.enter(me, false, timed, deadline);
+        }
+        if (!this.admitOrWait()) {
+            return workplaceWrapper.enter(me, false, timed, deadline);
+        }
+        return workplaceWrapper.tryClaim(me) || workplaceWrapper.enter(me, true, timed, deadline);
+    }
+
+    // Returns whether the worker got workplaceTo; see releaseAndAwait for when it
+    // does not. A timed worker that gives up stays at workplaceFrom, so it is no
+    // longer vacating it, or never started to if the previous occupant was still
+    // switching away until the deadline.
+    private boolean switchTo(Waiter me, WorkplaceWrapper workplaceFrom, WorkplaceWrapper workplaceTo,
+                             boolean timed, long deadline) {
+        this.stampRequest(me);
+        me.returned();
+        if (workplaceFrom == workplaceTo) {
+            return this.move(me, workplaceFrom, workplaceTo, timed, deadline);
+        }
+        if (!workplaceFrom.startVacating(timed, deadline)) {
+            return false;
+        }
+        me.vacated = workplaceFrom;
+        boolean moved = this.move(me, workplaceFrom, workplaceTo, timed, deadline);
+        if (!moved && timed) {
+            workplaceFrom.finishVacating();
+        }
+        return moved;
+    }
+
+    private boolean move(Waiter me, WorkplaceWrapper workplaceFrom, WorkplaceWrapper workplaceTo,
+                         boolean timed, long deadline) {
+        if (!this.isStriped()) {
+            this.acquireMutex(me);
+            return workplaceFrom.switchTo(me, workplaceTo, timed, deadline);
+        } else if (workplaceFrom == workplaceTo) {
+            // Nothing changes hands, so there is nothing to coordinate.
+            return true;
+        } else if (workplaceTo.tryClaim(me)) {
+            if (!workplaceFrom.tryRelease(me)) {
+                this.acquireMutex(me);
+                workplaceFrom.release();
+            }
+            return true;
+        } else {
+            this.acquireMutex(me);
+            return workplaceFrom.switchTo(me, workplaceTo, timed, deadline);
+        }
+    }
+
+    // The worker is done switching, so the next occupant of workplaceFrom may
+    // start using it; see WorkplaceWrapper.awaitReturned for when it may not yet.
+    private static void switched(Waiter me, WorkplaceWrapper workplaceFrom, WorkplaceWrapper workplaceTo) {
+        me.current = workplaceTo;
+        if (workplaceFrom != workplaceTo) {
+            workplaceFrom.finishVacating();
+        }
+    }
+
+    private void leave(Waiter me) {
+        me.returned();
+        if (me.held != null) {
+            this.leaveAll(me);
+            return;
+        }
+        WorkplaceWrapper workplaceWrapper = this.getCurrentWorkplace(me);
+        me.current = null;
+        if (!this.isStriped() || !workplaceWrapper.tryRelease(me)) {
+            this.acquireMutex(me);
+            workplaceWrapper.release();
+        }
+    }
+
+    // Requests for several workplaces go through the mutex on every engine. One
+    // that cannot have all of its workplaces at once reserves its place in the
+    // queue of each and is served there in turn, instead of waiting for all of
+    // them to be free at the same moment, which busy workplaces may never be.
+    // Its reservations are queued together, so any two such requests are served
+    // in the same order wherever they meet and never wait for each other. A
+    // workplace whose turn comes is held for the request until it has the rest,
+    // but not from switchers: they wait holding a workplace, which a request
+    // may be waiting for. So a switcher queues ahead of every reservation, and
+    // one that finds a workplace held for a request borrows it, the request
+    // getting the head of the queue back. Entrants hold nothing and queue behind.
+    // A waiting request is pending like any other, so that entries overtake it
+    // no more often than they would a single entrant. A crew is admitted as one
+    // entry per member, so that it takes as much of the window as its members
+    // would entering one by one.
+    private void enterAll(Waiter me, WorkplaceWrapper[] targets) {
+        long entrants = entrants(me);
+        this.stampRequest(me);
+        me.returned();
+        this.admission.addAndGet(ONE_WAITING);
+        this.acquireMutex(me);
+        if (!this.mayAdmitWaiting(entrants)) {
+            me.targets = targets;
+            this.registerPending(me);
+            this.queueForAdmission(me);
+        } else {
+            this.admitWaiting(entrants);
+            if (this.reserveAll(me, targets)) {
+                this.releaseMutex();
+                return;
+            }
+            this.registerPending(me);
+            this.waitAdmitted(me);
+        }
+        this.releaseMutex();
+        me.await();
+    }
+
+    // A worker that has to wait first gives up everything it holds, even the
+    // workplaces it asked for again, and then reserves them like the rest. The
+    // workplaces it gives up are kept from their next occupants until it returns,
+    // as after switchTo, but it may wait for one of those occupants, so it counts
+    // as returned as soon as it waits. That is the limit of the rule here: the
+    // next occupant may then start using a workplace while the worker that gave
+    // it up has not returned from switchToAll yet.
+    private void switchToAll(Waiter me, WorkplaceWrapper[] targets) {
+        WorkplaceWrapper[] held = me.held;
+        if (held == null) {
+            held = new WorkplaceWrapper[] {this.getCurrentWorkplace(me)};
+        }
+        this.stampRequest(me);
+        me.returned();
+        for (WorkplaceWrapper workplace : held) {
+            workplace.startVacating(false, 0);
+        }
+        me.vacatedAll = held;
+        this.acquireMutex(me);
+        if (this.claimAll(me, targets)) {
+            for (WorkplaceWrapper workplace : held) {
+                if (!contains(targets, workplace)) {
+                    workplace.handOver();
+                }
+            }
+            this.releaseMutex();
+            finishVacating(held);
+            return;
+        }
+        for (WorkplaceWrapper workplace : held) {
+            workplace.handOver();
+        }
+        me.held = null;
+        me.current = null;
+        boolean reserved = this.reserveAll(me, targets);
+        if (!reserved) {
+            this.registerPending(me);
+        }
+        this.releaseMutex();
+        finishVacating(held);
+        if (!reserved) {
+            me.returned();
+            me.await();
+        }
+    }
+
+    private static void finishVacating(WorkplaceWrapper[] workplaces) {
+        for (WorkplaceWrapper workplace : workplaces) {
+            workplace.finishVacating();
+        }
+    }
+
+    // A single workplace is held the usual way, so that the fast paths apply again.
+    private static void holdAll(Waiter me, WorkplaceWrapper[] targets) {
+        if (targets.length == 1) {
+            me.held = null;
+            me.current = targets[0];
+        } else {
+            me.held = targets;
+            me.current = null;
+        }
+    }
+
+    private void leaveAll(Waiter me) {
+        WorkplaceWrapper[] held = me.held;
+        me.held = null;
+        this.acquireMutex(me);
+        for (WorkplaceWrapper workplace : held) {
+            workplace.handOver();
+        }
+        this.releaseMutex();
+    }
+
+    // Called with the mutex held. Takes every target the worker does not hold yet,
+    // or none of them if any is taken. That one is marked as waited for; the
+    // worker reserves it next.
+    private boolean claimAll(Waiter me, WorkplaceWrapper[] targets) {
+        for (int i = 0; i < targets.length; i++) {
+            if (!holds(me, targets[i]) && !targets[i].claimOrMarkWaited(me)) {
+                while (--i >= 0) {
+                    if (!holds(me, targets[i])) {
+                        targets[i].unclaim();
+                    }
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean holds(Waiter me, WorkplaceWrapper workplace) {
+        return me.current == workplace || (me.held != null && contains(me.held, workplace));
+    }
+
+    // Called with the mutex held by a request for several workplaces that holds
+    // none of them. Takes those that are free, holding them for the request, and
+    // reserves a place in the queues of the others. Returns whether it got all of
+    // them, in which case they are the request's, or its crew's, right away.
+    private boolean reserveAll(Waiter me, WorkplaceWrapper[] targets) {
+        Waiter[] reservations = me.reservations(targets.length);
+        int missing = 0;
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i].claimOrMarkWaited(me)) {
+                targets[i].heldFor = me;
+            } else {
+                targets[i].reserve(reservations[i]);
+                missing++;
+            }
+        }
+        me.targets = targets;
+        me.missing = missing;
+        if (missing > 0) {
+            return false;
+        }
+        takeAll(me);
+        return true;
+    }
+
+    // Called with the mutex held once a request for several workplaces holds them all.
+    private static void takeAll(Waiter request) {
+        WorkplaceWrapper[] targets = request.targets;
+        request.targets = null;
+        for (WorkplaceWrapper target : targets) {
+            target.heldFor = null;
+        }
+        handOutCrew(request, targets);
+    }
+
+    // Called with the mutex held when the last workplace a waiting request for
+    // several was missing has been held for it; it is woken just to return.
+    private void grantAll(Waiter request) {
+        takeAll(request);
+        this.completePending(request);
+        request.release();
+    }
+
+    // Called with the mutex held once a request for several workplaces got them.
+    // Those of a crew pass to its members, each at the one it asked for.
+    private static void handOutCrew(Waiter request, WorkplaceWrapper[] targets) {
+        Waiter[] crew = request.crew;
+        if (crew == null) {
+            return;
+        }
+        request.crew = null;
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].passTo(crew[i]);
+            crew[i].current = targets[i];
+        }
+    }
+
+    private static long entrants(Waiter request) {
+        return request.crew == null ? 1 : request.crew.length;
+    }
+
+    private static boolean contains(WorkplaceWrapper[] workplaces, WorkplaceWrapper workplace) {
+        for (WorkplaceWrapper candidate : workplaces) {
+            if (candidate == workplace) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private boolean isStriped() {
+        return this.engine != WorkshopEngine.GLOBAL;
+    }
+
+    private static long deadline(long timeout, TimeUnit unit) {
+        return System.nanoTime() + Math.min(Math.max(unit.toNanos(timeout), 0), MAX_TIMEOUT_NANOS);
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline - System.nanoTime() <= 0;
+    }
+
+    private void acquireMutex(Waiter me) {
+        this.mutex.acquire(me);
+    }
+
+    private void releaseMutex() {
+        this.admitFromQueue();
+        this.mutex.release();
+    }
+
+    // Called with the mutex held. Lets in, in this one critical section, every
+    // entrant from workshopQueue the window has room for, and the oldest pending
+    // request regardless, as its own entries cannot overtake it. Each one either
+    // gets its workplace right away and is woken just to return, or joins the
+    // workplace's queue and is handed it from there like any other waiter.
+    private void admitFromQueue() {
+        Waiter entrant;
+        while ((entrant = this.workshopQueue.peek()) != null
+                && (allowance(this.admission.get()) >= entrants(entrant) || entrant == this.pending.oldest())) {
+            this.workshopQueue.remove(entrant);
+            WorkplaceWrapper target = entrant.target;
+            entrant.target = null;
+            long entrants = entrants(entrant);
+            long current;
+            do {
+                current = this.admission.get();
+            } while (!this.admission.compareAndSet(current, admitted(current, entrants) - ONE_WAITING));
+            if (target == null) {
+                // A request for several workplaces.
+                if (this.reserveAll(entrant, entrant.targets)) {
+                    this.completePending(entrant);
+                    entrant.release();
+                } else {
+                    this.waitAdmitted(entrant);
+                }
+            } else if (target.claimOrMarkWaited(entrant)) {
+                this.completePending(entrant);
+                entrant.release();
+            } else {
+                this.waitAdmitted(entrant);
+                target.queue.add(entrant);
+            }
+        }
+    }
+
+    private static long entries(long admission) {
+        return admission & ENTRIES_MASK;
+    }
+
+    private static long allowance(long admission) {
+        return (admission >>> ALLOWANCE_SHIFT) & ALLOWANCE_MASK;
+    }
+
+    private static long waiting(long admission) {
+        return admission >>> WAITING_SHIFT;
+    }
+
+    // Counts the entries, as many of them against the allowance as it has room for.
+    private static long admitted(long admission, long entrants) {
+        long entered = (admission & ~ENTRIES_MASK) | ((admission + entrants) & ENTRIES_MASK);
+        return entered - Math.min(allowance(admission), entrants) * ONE_ALLOWED;
+    }
+
+    // Remembers how many entries there were when the request was made, in case it
+    // has to wait; reading it before the mutex errs on the side of an older request.
+    // Entrants admitted earlier that still wait will get in after it all the same,
+    // so the request is made older by as many entries as they count for. Requests
+    // made between the same two entries can get the same ticket, and a later one
+    // can even look older, so waiting requests keep the order they were made in
+    // rather than the order of their tickets.
+    private void stampRequest(Waiter me) {
+        me.ticket = (entries(this.admission.get()) - this.admittedWaiting) & ENTRIES_MASK;
+        me.requestedAt = System.nanoTime();
+    }
+
+    // Called with the mutex held by an entry that was admitted but has to wait
+    // for its workplaces after all.
+    private void waitAdmitted(Waiter me) {
+        me.admittedEntries = entrants(me);
+        this.admittedWaiting += me.admittedEntries;
+    }
+
+    // Either admits the entrant or counts it as waiting, which stops the lock-free
+    // entries until it has been admitted under the mutex, so none can overtake it.
+    private boolean admitOrWait() {
+        long current;
+        boolean admit;
+        do {
+            current = this.admission.get();
+            admit = waiting(current) == 0 && allowance(current) > 0;
+        } while (!this.admission.compareAndSet(current, admit ? admitted(current, 1) : current + ONE_WAITING));
+        return admit;
+    }
+
+    // Called with the mutex held by a waiting entrant. With nothing pending, the
+    // lock-free entries may only have used up the allowance, so it is topped up.
+    // While anyone is counted as waiting no lock-free entry is made, so the answer
+    // holds until the entrant is admitted or stops waiting.
+    private boolean mayAdmitWaiting(long entrants) {
+        if (!this.workshopQueue.isEmpty()) {
+            return false;
+        }
+        if (this.pending.oldest() == null) {
+            this.moveWindow();
+        }
+        return allowance(this.admission.get()) >= entrants;
+    }
+
+    private void admitWaiting(long entrants) {
+        long current;
+        do {
+            current = this.admission.get();
+        } while (!this.admission.compareAndSet(current, admitted(current, entrants) - ONE_WAITING));
+    }
+
+    private void stopWaiting() {
+        this.admission.addAndGet(-ONE_WAITING);
+    }
+
+    // Called with the mutex held. Entrants queue in the order their requests were
+    // made in, as the pending requests do, so the oldest pending one is always at
+    // the head.
+    private void queueForAdmission(Waiter me) {
+        Waiter previous = this.workshopQueue.tail;
+        while (previous != null && !previous.madeBefore(me)) {
+            previous = previous.previous;
+        }
+        this.workshopQueue.insertAfter(previous, me);
+    }
+
+    // Called with the mutex held by a request that is about to wait.
+    private void registerPending(Waiter me) {
+        if (!me.pending && this.pending.add(me)) {
+            this.moveWindow();
+        }
+    }
+
+    // Called with the mutex held once a request got its workplace, or gave up.
+    private void completePending(Waiter me) {
+        if (me.admittedEntries > 0) {
+            this.admittedWaiting -= me.admittedEntries;
+            me.admittedEntries = 0;
+        }
+        if (me.pending && this.pending.remove(me)) {
+            this.moveWindow();
+        }
+    }
+
+    // Called with the mutex held whenever the oldest pending request changes. Only
+    // that one can be at risk: every entry it allows is allowed for younger ones too.
+    private void moveWindow() {
+        Waiter oldest = this.pending.oldest();
+        long current;
+        long allowance;
+        do {
+            current = this.admission.get();
+            if (oldest == null) {
+                allowance = ALLOWANCE_MASK;
+            } else {
+                allowance = Math.max(0, this.window - oldest.age(entries(current)));
+            }
+        } while (!this.admission.compareAndSet(current,
+                (current & ~(ALLOWANCE_MASK << ALLOWANCE_SHIFT)) | (allowance << ALLOWANCE_SHIFT)));
+    }
+
+    // Called with the mutex held by the closer, once the edge that closes the cycle
+    // through closerSlot is linked. Every member is moved one workplace forward
+    // right here, after which the mutex is released; the other members are woken
+    // just to return from switchTo, as on any other hand-off. Each of them starts using its new
+    // workplace as soon as its own predecessor there has returned as well.
+    private void rotateCycle(Waiter closer, int closerSlot) {
+        Waiter member = closer;
+        int slot = closerSlot;
+        do {
+            int nextSlot = this.waitFor.next(slot);
+            WorkplaceWrapper workplaceTo = this.workplaces[nextSlot];
+            Waiter nextMember = workplaceTo.occupant;
+            this.waitFor.unlink(slot);
+            if (member != closer) {
+                workplaceTo.queue.remove(member);
+            }
+            workplaceTo.setOwner(member);
+            this.completePending(member);
+            if (member != closer) {
+                member.release();
+            }
+            member = nextMember;
+            slot = nextSlot;
+        } while (slot != closerSlot);
+        this.releaseMutex();
+    }
+
+    // Called with the mutex held by a worker switching to workplaceTo, whose
+    // occupant waits for workplaceFrom: the two just trade places, without the
+    // edge that would close the cycle ever being linked or walked.
+    private void swap(Waiter me, WorkplaceWrapper workplaceFrom, WorkplaceWrapper workplaceTo) {
+        Waiter partner = workplaceTo.occupant;
+        this.waitFor.unlink(workplaceTo.slot);
+        workplaceFrom.queue.remove(partner);
+        workplaceFrom.setOwner(partner);
+        workplaceTo.setOwner(me);
+        this.completePending(partner);
+        partner.release();
+        this.releaseMutex();
+    }
+
+    // Called with the mutex held by a request that was queued for workplace.
+    // Returns whether it got the workplace: a blocking request always does, a
+    // timed one unless it gave up at its deadline. An asynchronous request, one
+    // with a wakeUp, returns false at once; the hand-off runs the wakeUp instead.
+    private boolean releaseAndAwait(Waiter me, WorkplaceWrapper workplace, long spinNanos,
+                                    boolean timed, long deadline) {
+        // Once the mutex is released the hand-off may come at any moment, after
+        // which an asynchronous worker may already be making its next request.
+        boolean async = me.wakeUp != null;
+        this.releaseMutex();
+        if (async) {
+            return false;
+        }
+        if (!timed) {
+            me.await(spinNanos);
+            return true;
+        }
+        return me.await(spinNanos, deadline) || this.cancel(me, workplace);
+    }
+
+    // Called by a waiter whose deadline passed or who was interrupted. If it was
+    // handed its workplace in the meantime it keeps it; otherwise it is taken out
+    // of the queue it waits in, the wait-for graph and the pending requests. An
+    // entrant that was already admitted still counts as an entry, as the count
+    // only grows: the window just lets the requests it overtook in a little later
+    // than it had to, which never breaks the bound.
+    private boolean cancel(Waiter me, WorkplaceWrapper workplace) {
+        this.acquireMutex(me);
+        if (me.permit) {
+            me.permit = false;
+            this.releaseMutex();
+            return true;
+        }
+        if (me.target != null) {
+            this.workshopQueue.remove(me);
+            me.target = null;
+            this.stopWaiting();
+        } else {
+            workplace.queue.remove(me);
+            if (workplace.queue.isEmpty()) {
+                workplace.unmarkWaited();
+            }
+            if (me.current != null) {
+                this.waitFor.unlink(me.current.slot);
+            }
+        }
+        this.completePending(me);
+        this.releaseMutex();
+        return false;
     }
 
     private WorkplaceWrapper getWorkplaceWrapper(WorkplaceId wid) {
-        return this.workplaces.stream()
-                .filter(workplaceWrapper -> workplaceWrapper.getId() == wid)
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("panic: workplace not found"));
+        return this.index.get(wid);
+    }
+
+    private Waiter getOutsideMember(WorkshopSession session) {
+        if (!(session instanceof WaiterSession) || ((WaiterSession) session).workshop() != this) {
+            throw new RuntimeException("panic: session of another workshop");
+        }
+        Waiter member = ((WaiterSession) session).me;
+        if (member.current != null || member.held != null) {
+            throw new RuntimeException("panic: crew member already in the workshop");
+        }
+        return member;
     }
 
-    private WorkplaceWrapper getWorkplaceWrapper(long threadId) {
-        return this.workplaces.stream()
-                .filter(workplaceWrapper -> workplaceWrapper.owner == threadId)
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("panic: workplace not found"));
+    private WorkplaceWrapper[] getWorkplaceWrappers(Collection<? extends WorkplaceId> wids) {
+        if (wids.isEmpty()) {
+            throw new RuntimeException("panic: no workplaces requested");
+        }
+        WorkplaceWrapper[] workplaceWrappers = new WorkplaceWrapper[wids.size()];
+        int i = 0;
+        for (WorkplaceId wid : wids) {
+            WorkplaceWrapper workplaceWrapper = this.getWorkplaceWrapper(wid);
+            if (contains(workplaceWrappers, workplaceWrapper)) {
+                throw new RuntimeException("panic: workplace requested twice");
+            }
+            workplaceWrappers[i++] = workplaceWrapper;
+        }
+        return workplaceWrappers;
+    }
+
+    private WorkplaceWrapper getCurrentWorkplace(Waiter me) {
+        WorkplaceWrapper workplaceWrapper = me.current;
+        if (workplaceWrapper == null) {
+            throw new RuntimeException("panic: workplace not found");
+        }
+        return workplaceWrapper;
     }
 
-    private int getWorkplaceIndex(WorkplaceWrapper workplace) {
-        return this.workplaces.indexOf(workplace);
+    // A logical worker that waits on futures instead of a thread of its own. Its
+    // requests are granted exactly like those of any other worker. The thread
+    // making a request may block, but only for the mutex or for a previous
+    // occupant to finish switching away. Its own switches are over once granted,
+    // so it never keeps the next occupant waiting for an executor thread.
+    private final class FutureWorker implements AsyncWorker {
+        private final Waiter me;
+        private final Executor executor;
+
+        FutureWorker(Executor executor) {
+            this.me = new Waiter();
+            this.executor = executor;
+        }
+
+        @Override
+        public CompletableFuture<Workplace> enterAsync(WorkplaceId wid) {
+            WorkplaceWrapper workplaceWrapper = ConcurrentWorkshop.this.getWorkplaceWrapper(wid);
+            CompletableFuture<Workplace> future = new CompletableFuture<>();
+            Waiter me = this.me;
+            me.thread = Thread.currentThread();
+            me.wakeUp = () -> this.executor.execute(() -> this.granted(workplaceWrapper, future));
+            if (ConcurrentWorkshop.this.enter(me, workplaceWrapper, false, 0)) {
+                me.wakeUp = null;
+                this.granted(workplaceWrapper, future);
+            }
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Workplace> switchToAsync(WorkplaceId wid) {
+            WorkplaceWrapper workplaceTo = ConcurrentWorkshop.this.getWorkplaceWrapper(wid);
+            WorkplaceWrapper workplaceFrom = ConcurrentWorkshop.this.getCurrentWorkplace(this.me);
+            CompletableFuture<Workplace> future = new CompletableFuture<>();
+            Waiter me = this.me;
+            me.thread = Thread.currentThread();
+            // Runs with the mutex held, so it only hands the completion over. The
+            // worker counts as returned right away: the next occupant of
+            // workplaceFrom may be waiting for that on an executor thread, and the
+            // worker's next request may be queued behind it in the same executor.
+            me.wakeUp = () -> {
+                workplaceFrom.finishVacating();
+                me.returned();
+                this.executor.execute(() -> this.granted(workplaceTo, future));
+            };
+            if (ConcurrentWorkshop.this.switchTo(me, workplaceFrom, workplaceTo, false, 0)) {
+                me.wakeUp = null;
+                if (workplaceFrom != workplaceTo) {
+                    workplaceFrom.finishVacating();
+                }
+                this.granted(workplaceTo, future);
+            }
+            return future;
+        }
+
+        // Leaving never waits for anyone, so it is done right away.
+        @Override
+        public CompletableFuture<Void> leaveAsync() {
+            this.me.thread = Thread.currentThread();
+            ConcurrentWorkshop.this.leave(this.me);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private void granted(WorkplaceWrapper workplaceWrapper, CompletableFuture<Workplace> future) {
+            this.me.current = workplaceWrapper;
+            future.complete(workplaceWrapper);
+        }
+    }
+
+    // A worker that carries its own waiter, so no call has to look it up through
+    // the thread. Each call parks the thread it comes from, which is all that
+    // ties a worker to a thread, and only for as long as the call lasts.
+    private final class WaiterSession implements WorkshopSession {
+        private final Waiter me;
+
+        WaiterSession() {
+            this.me = new Waiter();
+        }
+
+        ConcurrentWorkshop workshop() {
+            return ConcurrentWorkshop.this;
+        }
+
+        @Override
+        public Workplace enter(WorkplaceId wid) {
+            Waiter me = this.me;
+            me.thread = Thread.currentThread();
+            return ConcurrentWorkshop.this.enter(me, wid);
+        }
+
+        @Override
+        public Workplace switchTo(WorkplaceId wid) {
+            Waiter me = this.me;
+            me.thread = Thread.currentThread();
+            return ConcurrentWorkshop.this.switchTo(me, wid);
+        }
+
+        @Override
+        public void leave() {
+            Waiter me = this.me;
+            me.thread = Thread.currentThread();
+            ConcurrentWorkshop.this.leave(me);
+        }
+
+        @Override
+        public void use() {
+            ConcurrentWorkshop.this.getCurrentWorkplace(this.me).use();
+        }
+    }
+
+    // A route with its workplaces looked up once. A walk finds its waiter once as
+    // well and then goes from station to station without looking anything up,
+    // through the same enter and switchTo paths as separate calls.
+    private class ResolvedRoute implements WorkshopRoute {
+        private final WorkplaceWrapper[] stations;
+
+        ResolvedRoute(List<? extends WorkplaceId> route) {
+            if (route.isEmpty()) {
+                throw new RuntimeException("panic: empty route");
+            }
+            this.stations = new WorkplaceWrapper[route.size()];
+            for (int i = 0; i < this.stations.length; i++) {
+                this.stations[i] = ConcurrentWorkshop.this.getWorkplaceWrapper(route.get(i));
+            }
+        }
+
+        @Override
+        public void walk() {
+            ConcurrentWorkshop workshop = ConcurrentWorkshop.this;
+            WorkplaceWrapper[] stations = this.stations;
+            Waiter me = workshop.waiters.get();
+            WorkplaceWrapper station = stations[0];
+            workshop.enter(me, station, false, 0);
+            me.current = station;
+            station.use();
+            for (int i = 1; i < stations.length; i++) {
+                WorkplaceWrapper next = stations[i];
+                workshop.switchTo(me, station, next, false, 0);
+                switched(me, station, next);
+                station = next;
+                station.use();
+            }
+            workshop.leave(me);
+        }
+    }
+
+    // A route walked by many workers, with a slot for each station. A worker
+    // takes a slot before entering and hands it to the next one in line after
+    // leaving. As all of them go the same way, one station at a time, every
+    // station can be busy at once while only the workers in slots wait inside
+    // the workshop: the station queues stay short, and workers walking the line
+    // cannot crowd out those who switch between the same workplaces on their own.
+    private final class AssemblyLine extends ResolvedRoute {
+        // Guards the slots for a few instructions at a time. It is the line's own,
+        // so that workers getting on and off do not queue for the workshop mutex.
+        private final Mutex guard;
+        private int freeSlots;
+        private final WaiterQueue waiting;
+
+        AssemblyLine(List<? extends WorkplaceId> stations) {
+            super(stations);
+            this.guard = new Mutex(false);
+            this.freeSlots = stations.size();
+            this.waiting = new WaiterQueue();
+        }
+
+        @Override
+        public void walk() {
+            Waiter me = ConcurrentWorkshop.this.waiters.get();
+            this.guard.acquire(me);
+            if (this.freeSlots > 0) {
+                this.freeSlots--;
+                this.guard.release();
+            } else {
+                this.waiting.add(me);
+                this.guard.release();
+                me.await();
+            }
+
+            super.walk();
+
+            this.guard.acquire(me);
+            Waiter next = this.waiting.peek();
+            if (next == null) {
+                this.freeSlots++;
+            } else {
+                this.waiting.remove(next);
+            }
+            this.guard.release();
+            if (next != null) {
+                next.release();
+            }
+        }
+    }
+
+    // A worker's parking spot, created on its first enter and reused for every
+    // later operation. The token stands for the worker in the owner words; unlike
+    // a thread id it is never handed out twice.
+    private static final class Waiter {
+        private static final AtomicLong TOKENS = new AtomicLong(0);
+
+        // The requests of an asynchronous worker or a session may come from
+        // different threads; the thread that blocks is set at the start of each one.
+        private Thread thread;
+        private final long token;
+        private volatile boolean permit;
+        // The mutex is handed over on a permit of its own, so that a workplace
+        // handed to a worker that timed out and waits for the mutex is not lost.
+        private volatile boolean mutexPermit;
+        private WorkplaceWrapper current;
+        // Set while an asynchronous request waits; a hand-off runs it instead of
+        // waking the thread.
+        private Runnable wakeUp;
+        private Waiter previous;
+        private Waiter next;
+        private Waiter nextForMutex;
+        // The workplace an entrant waiting in workshopQueue asked for.
+        private WorkplaceWrapper target;
+        // The workplaces a worker holds instead of current when it holds several,
+        // and those a request for several waits for, and how many of them are not
+        // held for it yet.
+        private WorkplaceWrapper[] held;
+        private WorkplaceWrapper[] targets;
+        private int missing;
+        // The members of a crew whose request this is, in the order of targets.
+        private Waiter[] crew;
+        // A request's reservations, in the order of targets, kept for its later
+        // requests; and for a reservation, the request it keeps a place for.
+        private Waiter[] reservations;
+        private Waiter reservedFor;
+        // The workplace this worker last started to switch away from, or those
+        // it gave up in switchToAll, until it calls into the workshop again; see
+        // WorkplaceWrapper.awaitReturned.
+        private volatile WorkplaceWrapper vacated;
+        private volatile WorkplaceWrapper[] vacatedAll;
+        // Entries made before the current request and when it was made, and its
+        // place among the pending ones.
+        private long ticket;
+        private long requestedAt;
+        private boolean pending;
+        // How many of admittedWaiting are this request's.
+        private long admittedEntries;
+        private Waiter older;
+        private Waiter newer;
+
+        Waiter() {
+            this.thread = Thread.currentThread();
+            this.token = TOKENS.incrementAndGet();
+        }
+
+        // A reservation never owns a workplace, so it takes no token.
+        private Waiter(Waiter request) {
+            this.token = WorkplaceWrapper.FREE;
+            this.reservedFor = request;
+        }
+
+        Waiter[] reservations(int count) {
+            if (this.reservations == null || this.reservations.length < count) {
+                this.reservations = new Waiter[count];
+                for (int i = 0; i < count; i++) {
+                    this.reservations[i] = new Waiter(this);
+                }
+            }
+            return this.reservations;
+        }
+
+        Waiter reservationAt(WorkplaceWrapper target) {
+            WorkplaceWrapper[] targets = this.targets;
+            int i = 0;
+            while (targets[i] != target) {
+                i++;
+            }
+            return this.reservations[i];
+        }
+
+        void release() {
+            Runnable wakeUp = this.wakeUp;
+            if (wakeUp != null) {
+                this.wakeUp = null;
+                wakeUp.run();
+                return;
+            }
+            this.permit = true;
+            LockSupport.unpark(this.thread);
+        }
+
+        // A pending interrupt would make every park return at once, so it is
+        // cleared while waiting and restored afterwards.
+        void await() {
+            boolean interrupted = false;
+            while (!this.permit) {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+            this.permit = false;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Spins for up to spinNanos before parking. A release that comes while it
+        // spins still unparks the thread, which only makes a later park return early.
+        void await(long spinNanos) {
+            if (spinNanos > 0) {
+                long deadline = System.nanoTime() + spinNanos;
+                while (!this.permit && System.nanoTime() - deadline < 0) {
+                    Thread.onSpinWait();
+                }
+            }
+            this.await();
+        }
+
+        // Like await(spinNanos), but gives up at the deadline or once the thread is
+        // interrupted, leaving the interrupt pending. Returns whether it was released.
+        boolean await(long spinNanos, long deadline) {
+            if (spinNanos > 0) {
+                long spinDeadline = System.nanoTime() + spinNanos;
+                while (!this.permit && System.nanoTime() - spinDeadline < 0) {
+                    Thread.onSpinWait();
+                }
+            }
+            while (!this.permit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            this.permit = false;
+            return true;
+        }
+
+        void grantMutex() {
+            this.mutexPermit = true;
+            LockSupport.unpark(this.thread);
+        }
+
+        // Never interrupted: the mutex is only held briefly, and a worker that gave
+        // up still needs it to withdraw its request.
+        void awaitMutex() {
+            boolean interrupted = false;
+            while (!this.mutexPermit) {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+            this.mutexPermit = false;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long age(long entries) {
+            return (entries - this.ticket) & ENTRIES_MASK;
+        }
+
+        boolean madeBefore(Waiter other) {
+            return this.requestedAt - other.requestedAt < 0;
+        }
+
+        // Called whenever the worker calls into the workshop, which shows that it
+        // is done returning from its last switch.
+        void returned() {
+            WorkplaceWrapper vacated = this.vacated;
+            if (vacated != null) {
+                this.vacated = null;
+                vacated.returned(this);
+            }
+            WorkplaceWrapper[] vacatedAll = this.vacatedAll;
+            if (vacatedAll != null) {
+                this.vacatedAll = null;
+                for (WorkplaceWrapper workplace : vacatedAll) {
+                    workplace.returned(this);
+                }
+            }
+        }
+    }
+
+    // The workshop mutex. Every worker that takes it also releases it, since waiters
+    // are handed their workplaces instead of finishing the hand-off themselves. It
+    // queues the workers' own waiter nodes instead of allocating one per blocked acquire.
+    // When fair, a release hands it straight to the longest waiting worker; otherwise
+    // a release only wakes that worker, and whoever gets there first takes it.
+    private static final class Mutex {
+        private static final int SPINS_BEFORE_YIELD = 64;
+
+        private final boolean fair;
+        // Guards the fields below for the few instructions each operation needs.
+        private final AtomicBoolean guard;
+        private boolean held;
+        private Waiter head;
+        private Waiter tail;
+
+        Mutex(boolean fair) {
+            this.fair = fair;
+            this.guard = new AtomicBoolean(false);
+        }
+
+        void acquire(Waiter me) {
+            this.lockGuard();
+            if (!this.held) {
+                // When fair, a free mutex always has an empty queue.
+                this.held = true;
+                this.unlockGuard();
+                return;
+            }
+            me.nextForMutex = null;
+            if (this.tail == null) {
+                this.head = me;
+            } else {
+                this.tail.nextForMutex = me;
+            }
+            this.tail = me;
+            this.unlockGuard();
+            if (this.fair) {
+                me.awaitMutex();
+                return;
+            }
+            while (true) {
+                me.awaitMutex();
+                this.lockGuard();
+                // Only the head is ever woken, and it stays at the head until it wins.
+                if (!this.held) {
+                    this.held = true;
+                    this.removeHead();
+                    this.unlockGuard();
+                    return;
+                }
+                this.unlockGuard();
+            }
+        }
+
+        void release() {
+            this.lockGuard();
+            Waiter next = this.head;
+            if (next == null || !this.fair) {
+                this.held = false;
+            } else {
+                this.removeHead();
+            }
+            this.unlockGuard();
+            if (next != null) {
+                next.grantMutex();
+            }
+        }
+
+        private void removeHead() {
+            this.head = this.head.nextForMutex;
+            if (this.head == null) {
+                this.tail = null;
+            }
+        }
+
+        private void lockGuard() {
+            int spins = 0;
+            while (!this.guard.compareAndSet(false, true)) {
+                if (++spins % SPINS_BEFORE_YIELD == 0) {
+                    Thread.yield();
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+
+        private void unlockGuard() {
+            this.guard.set(false);
+        }
+    }
+
+    // FIFO of waiters linked through their own nodes. A waiter sits in at most one
+    // queue at a time and every queue is only touched with the mutex held, or for
+    // an assembly line's queue, the line's guard.
+    private static final class WaiterQueue {
+        private Waiter head;
+        private Waiter tail;
+
+        boolean isEmpty() {
+            return this.head == null;
+        }
+
+        Waiter peek() {
+            return this.head;
+        }
+
+        void add(Waiter waiter) {
+            this.insertAfter(this.tail, waiter);
+        }
+
+        // Inserts the waiter after previous, or at the head if previous is null.
+        void insertAfter(Waiter previous, Waiter waiter) {
+            Waiter next = previous == null ? this.head : previous.next;
+            waiter.previous = previous;
+            waiter.next = next;
+            if (previous == null) {
+                this.head = waiter;
+            } else {
+                previous.next = waiter;
+            }
+            if (next == null) {
+                this.tail = waiter;
+            } else {
+                next.previous = waiter;
+            }
+        }
+
+        void remove(Waiter waiter) {
+            if (waiter.previous == null) {
+                this.head = waiter.next;
+            } else {
+                waiter.previous.next = waiter.next;
+            }
+            if (waiter.next == null) {
+                this.tail = waiter.previous;
+            } else {
+                waiter.next.previous = waiter.previous;
+            }
+            waiter.previous = null;
+            waiter.next = null;
+        }
+    }
+
+    // Requests that had to wait, in the order they were made, linked through the
+    // waiters' own nodes. Only touched with the mutex held.
+    private static final class PendingRequests {
+        private Waiter oldest;
+        private Waiter newest;
+
+        Waiter oldest() {
+            return this.oldest;
+        }
+
+        // Requests are stamped before the mutex, so one can be older than some
+        // already added; it is walked back from the newest end. Returns whether
+        // the waiter became the oldest.
+        boolean add(Waiter waiter) {
+            Waiter older = this.newest;
+            while (older != null && !older.madeBefore(waiter)) {
+                older = older.older;
+            }
+            Waiter newer = older == null ? this.oldest : older.newer;
+            waiter.older = older;
+            waiter.newer = newer;
+            if (older == null) {
+                this.oldest = waiter;
+            } else {
+                older.newer = waiter;
+            }
+            if (newer == null) {
+                this.newest = waiter;
+            } else {
+                newer.older = waiter;
+            }
+            waiter.pending = true;
+            return older == null;
+        }
+
+        // Returns whether the waiter was the oldest.
+        boolean remove(Waiter waiter) {
+            boolean wasOldest = waiter.older == null;
+            if (wasOldest) {
+                this.oldest = waiter.newer;
+            } else {
+                waiter.older.newer = waiter.newer;
+            }
+            if (waiter.newer == null) {
+                this.newest = waiter.older;
+            } else {
+                waiter.newer.older = waiter.older;
+            }
+            waiter.older = null;
+            waiter.newer = null;
+            waiter.pending = false;
+            return wasOldest;
+        }
     }
 
     private static class WorkplaceWrapper extends Workplace {
+        // The owner word holds the owner's waiter token or FREE. The WAITED bit is set,
+        // with the mutex held, while someone waits for the workplace. The CAS paths
+        // only move between FREE and an owner without it, so once it is set the
+        // workplace changes hands only under the mutex.
+        private static final long FREE = 0L;
+        private static final long WAITED = 1L << 62;
+        private static final VarHandle OWNER;
+        private static final VarHandle VACATED_BY;
+
+        static {
+            try {
+                OWNER = MethodHandles.lookup().findVarHandle(WorkplaceWrapper.class, "owner", long.class);
+                VACATED_BY = MethodHandles.lookup().findVarHandle(WorkplaceWrapper.class, "vacatedBy", Waiter.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
         private final Workplace workplace;
         private final ConcurrentWorkshop workshop;
-        private long owner;
-        private final Queue<Long> queue;
-        private Queue<WorkplaceId> cycle;
-        private CountDownLatch latch;
+        private final int slot;
+        private volatile long owner;
+        private final WaiterQueue queue;
+        // How many reservations the queue holds, and the request for several
+        // workplaces this one is held for while it waits for the rest. Guarded
+        // by the mutex.
+        private int reservations;
+        private Waiter heldFor;
+        // The waiter that owns the workplace; read under the mutex only while it waits.
+        private Waiter occupant;
+        // When the owner got the workplace, and a moving average of how long owners
+        // keep it, which tells waiters how long to spin. Only kept when spinning.
+        private long heldSince;
+        private volatile long holdNanos;
+        // Set while the worker switching away from this workplace has not yet
+        // returned from switchTo; the next occupant must not start using it before.
+        private volatile boolean vacating;
+        private volatile Thread vacatingWaiter;
+        // The worker that was still switching away from this workplace when the
+        // next occupant took it, until it calls into the workshop again. The
+        // vacatingWaiter waits for this as well.
+        private volatile Waiter vacatedBy;
 
-        public WorkplaceWrapper(Workplace workplace, ConcurrentWorkshop workshop) {
+        public WorkplaceWrapper(Workplace workplace, ConcurrentWorkshop workshop, int slot) {
             super(workplace.getId());
             this.workplace = workplace;
             this.workshop = workshop;
-            this.owner = -1;
-            this.queue = new ConcurrentLinkedQueue<>();
+            this.slot = slot;
+            this.owner = FREE;
+            this.queue = new WaiterQueue();
         }
 
-        public void enter() {
-            try {
-                this.workshop.mutex.acquire();
-                if (this.workshop.howManyEnteredNow >= 2 * this.workshop.workplaces.size()) {
-                    this.workshop.workshopQueue.add(Thread.currentThread().getId());
-                    this.workshop.mutex.release();
-                    this.workshop.threadSemaphores.get(Thread.currentThread().getId()).acquire();
-                    this.workshop.workshopQueue.poll();
-                }
-                this.workshop.howManyThreadsAreInWorkshop++;
-                this.workshop.howManyEnteredNow++;
-                if (this.owner != -1) {
-                    this.queue.add(Thread.currentThread().getId());
-                    if (this.workshop.howManyEnteredNow == 2 * this.workshop.workplaces.size() ||
-                            this.workshop.workshopQueue.isEmpty()) {
-                        this.workshop.mutex.release();
-                    } else {
-                        this.workshop.threadSemaphores.get(this.workshop.workshopQueue.peek()).release();
+        public boolean tryClaim(Waiter me) {
+            if (!OWNER.compareAndSet(this, FREE, me.token)) {
+                return false;
+            }
+            this.takeOver(me);
+            this.startHold();
+            return true;
+        }
+
+        public boolean tryRelease(Waiter me) {
+            // Once it is free, someone else may claim it and restart the hold.
+            long heldSince = this.heldSince;
+            if (!OWNER.compareAndSet(this, me.token, FREE)) {
+                return false;
+            }
+            this.endHold(heldSince);
+            return true;
+        }
+
+        // Called with the mutex held, for the waiter that now owns the workplace.
+        private void setOwner(Waiter me) {
+            this.endHold(this.heldSince);
+            this.takeOver(me);
+            this.owner = this.queue.isEmpty() ? me.token : (me.token | WAITED);
+            this.startHold();
+        }
+
+        // Called right after me was made the owner. If the previous occupant is
+        // still switching away, the workplace is not used until it calls into
+        // the workshop again; see awaitReturned. The switch is checked again
+        // after the handshake is published, so either the previous occupant sees
+        // it when it calls in or it is taken back here.
+        private void takeOver(Waiter me) {
+            Waiter previous = this.occupant;
+            this.occupant = me;
+            if (previous == null || !this.switchingAway(previous)) {
+                return;
+            }
+            this.vacatedBy = previous;
+            if (!this.switchingAway(previous)) {
+                VACATED_BY.compareAndSet(this, previous, null);
+            }
+        }
+
+        // A worker that vacates this workplace has not called into the workshop
+        // since, so the one vacating it must be that worker.
+        private boolean switchingAway(Waiter previous) {
+            return (previous.vacated == this || this.vacatedAll(previous)) && this.vacating;
+        }
+
+        private boolean vacatedAll(Waiter previous) {
+            WorkplaceWrapper[] vacatedAll = previous.vacatedAll;
+            return vacatedAll != null && contains(vacatedAll, this);
+        }
+
+        private void startHold() {
+            if (this.workshop.spinning) {
+                this.heldSince = System.nanoTime();
+            }
+        }
+
+        private void endHold(long heldSince) {
+            if (this.workshop.spinning) {
+                long held = System.nanoTime() - heldSince;
+                this.holdNanos += (held - this.holdNanos) >> 3;
+            }
+        }
+
+        // Called with the mutex held by a waiter that just joined the queue. Only
+        // the first in line spins, for about as long as the workplace is usually held.
+        private long spinNanos(Waiter me) {
+            if (!this.workshop.spinning || this.queue.peek() != me) {
+                return 0;
+            }
+            long hold = this.holdNanos;
+            return hold <= MAX_SPIN_NANOS ? hold : 0;
+        }
+
+        // Called with the mutex held by the last waiter to leave the queue without
+        // the workplace. With WAITED set the owner word only changes under the mutex.
+        private void unmarkWaited() {
+            this.owner &= ~WAITED;
+        }
+
+        // Called with the mutex held. Takes the workplace if it is free, otherwise
+        // marks it as waited for, so its owner can no longer release it without the mutex.
+        private boolean claimOrMarkWaited(Waiter me) {
+            while (true) {
+                long word = this.owner;
+                if ((word & ~WAITED) == FREE) {
+                    if (OWNER.compareAndSet(this, word, me.token | (word & WAITED))) {
+                        this.takeOver(me);
+                        this.startHold();
+                        return true;
                     }
-                    this.workshop.threadSemaphores.get(Thread.currentThread().getId()).acquire();
-                    this.queue.poll();
+                } else if ((word & WAITED) != 0 || OWNER.compareAndSet(this, word, word | WAITED)) {
+                    return false;
                 }
-                this.owner = Thread.currentThread().getId();
-                if (this.workshop.howManyEnteredNow == 2 * this.workshop.workplaces.size() ||
-                        this.workshop.workshopQueue.isEmpty()) {
-                    this.workshop.mutex.release();
-                } else {
-                    this.workshop.threadSemaphores.get(this.workshop.workshopQueue.peek()).release();
-                }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("panic: unexpected thread interruption");
             }
         }
 
-        public void switchTo(WorkplaceWrapper workplaceTo) {
-            try {
-                if (workplaceTo.getId() == this.getId()) {
-                    this.workshop.mutex.release();
-                } else if (workplaceTo.owner == -1) {
-                    workplaceTo.owner = Thread.currentThread().getId();
-                    this.owner = -1;
-                    if (!this.queue.isEmpty()) {
-                        this.workshop.threadSemaphores.get(this.queue.peek()).release();
-                    } else {
-                        this.workshop.mutex.release();
-                    }
+        // Called with the mutex held by a request for several workplaces that took
+        // this one for another worker, as for a crew member.
+        private void passTo(Waiter me) {
+            long word;
+            do {
+                word = this.owner;
+            } while (!OWNER.compareAndSet(this, word, me.token | (word & WAITED)));
+            this.occupant = me;
+        }
+
+        // Called with the mutex held to undo a claim when another workplace of the
+        // same request was taken. Nobody can have queued for it in between.
+        private void unclaim() {
+            this.owner = FREE;
+        }
+
+        // Called with the mutex held for a workplace marked as waited for.
+        private void reserve(Waiter reservation) {
+            this.queue.add(reservation);
+            this.reservations++;
+        }
+
+        // Called with the mutex held. A switcher waits holding a workplace, so it
+        // goes ahead of the reservations; see enterAll.
+        private void queueSwitcher(Waiter me) {
+            if (this.reservations == 0) {
+                this.queue.add(me);
+                return;
+            }
+            Waiter reservation = this.queue.peek();
+            while (reservation.reservedFor == null) {
+                reservation = reservation.next;
+            }
+            this.queue.insertAfter(reservation.previous, me);
+        }
+
+        // Called with the mutex held when the reservation at the head of the
+        // queue has been taken out of it.
+        private void holdFor(Waiter request) {
+            this.reservations--;
+            this.setOwner(request);
+            this.heldFor = request;
+            if (--request.missing == 0) {
+                this.workshop.grantAll(request);
+            }
+        }
+
+        // Called with the mutex held by a switcher that finds the workplace held
+        // for a request, which gets its place back at the head of the queue.
+        private void lendTo(Waiter me) {
+            Waiter request = this.heldFor;
+            this.heldFor = null;
+            request.missing++;
+            this.queue.insertAfter(null, request.reservationAt(this));
+            this.reservations++;
+            this.setOwner(me);
+        }
+
+        // Returns false only if a timed worker gave up before the previous
+        // occupant was done switching away.
+        public boolean startVacating(boolean timed, long deadline) {
+            if (!this.awaitVacated(timed, deadline)) {
+                return false;
+            }
+            this.vacating = true;
+            return true;
+        }
+
+        public void finishVacating() {
+            this.vacating = false;
+            Thread waiter = this.vacatingWaiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        private void awaitVacated() {
+            this.awaitVacated(false, 0);
+        }
+
+        // A timed wait gives up at the deadline or once the thread is
+        // interrupted, leaving the interrupt pending, as Waiter.await does.
+        private boolean awaitVacated(boolean timed, long deadline) {
+            if (!this.vacating) {
+                return true;
+            }
+            this.vacatingWaiter = Thread.currentThread();
+            boolean interrupted = false;
+            boolean vacated = true;
+            while (this.vacating) {
+                if (!timed) {
+                    LockSupport.park(this);
+                    interrupted |= Thread.interrupted();
+                } else if (expired(deadline) || Thread.currentThread().isInterrupted()) {
+                    vacated = false;
+                    break;
                 } else {
-                    int index = this.workshop.getWorkplaceIndex(this);
-                    int indexTo = this.workshop.getWorkplaceIndex(workplaceTo);
-                    this.workshop.whereToSwitch[index] = indexTo;
-                    boolean cycle = false;
-                    while (this.workshop.whereToSwitch[indexTo] != -1) {
-                        if (this.workshop.whereToSwitch[indexTo] == index) {
-                            cycle = true;
-                            break;
-                        }
-                        indexTo = this.workshop.whereToSwitch[indexTo];
-                    }
-                    if (cycle) {
-                        indexTo = this.workshop.whereToSwitch[index];
-                        var queueCycle = new ConcurrentLinkedDeque<WorkplaceId>();
-                        queueCycle.add(this.getId());
-                        while (indexTo != index) {
-                            queueCycle.add(this.workshop.workplaces.get(indexTo).getId());
-                            indexTo = this.workshop.whereToSwitch[indexTo];
-                        }
-                        Queue<WorkplaceId> cycleCopy = new ConcurrentLinkedQueue<>(queueCycle);
-                        int size = queueCycle.size();
-                        while (!queueCycle.isEmpty()) {
-                            WorkplaceId id = queueCycle.pollLast();
-                            WorkplaceWrapper workplace = this.workshop.getWorkplaceWrapper(id);
-                            workplace.cycle = cycleCopy;
-                            workplace.latch = new CountDownLatch(size);
-                        }
-                        this.workshop.threadSemaphores.get(workplaceTo.owner).release();
-                        this.workshop.threadSemaphores.get(Thread.currentThread().getId()).acquire();
-                        this.workshop.whereToSwitch[index] = -1;
-                        workplaceTo.owner = Thread.currentThread().getId();
-                    } else {
-                        workplaceTo.queue.add(Thread.currentThread().getId());
-                        this.workshop.mutex.release();
-                        this.workshop.threadSemaphores.get(Thread.currentThread().getId()).acquire();
-                        workplaceTo.queue.remove(Thread.currentThread().getId());
-                        this.workshop.whereToSwitch[index] = -1;
-                        long oldWorkplaceToOwner = workplaceTo.owner;
-                        workplaceTo.owner = Thread.currentThread().getId();
-                        if (this.cycle != null) {
-                            this.workshop.threadSemaphores.get(oldWorkplaceToOwner).release();
-                        } else {
-                            this.workshop.whereToSwitch[this.workshop.getWorkplaceIndex(this)] = -1;
-                            if (!this.queue.isEmpty()) {
-                                this.workshop.threadSemaphores.get(this.queue.peek()).release();
-                            } else {
-                                this.owner = -1;
-                                this.workshop.mutex.release();
-                            }
-                        }
-                    }
+                    LockSupport.parkNanos(this, deadline - System.nanoTime());
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("panic: unexpected thread interruption");
             }
+            this.vacatingWaiter = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return vacated;
         }
 
-        public void leave() {
-            this.owner = -1;
-            this.workshop.howManyThreadsAreInWorkshop--;
-            if (this.workshop.howManyThreadsAreInWorkshop == 0) {
-                this.workshop.howManyEnteredNow = 0;
-                if (!this.workshop.workshopQueue.isEmpty()) {
-                    this.workshop.threadSemaphores.get(this.workshop.workshopQueue.peek()).release();
-                } else {
-                    this.workshop.mutex.release();
+        // Returns whether the entrant got the workplace. A timed entrant gives up
+        // once the deadline passes or it is interrupted, and does not queue at all
+        // if the deadline already has.
+        public boolean enter(Waiter me, boolean admitted, boolean timed, long deadline) {
+            ConcurrentWorkshop workshop = this.workshop;
+            workshop.acquireMutex(me);
+            boolean admit = admitted || workshop.mayAdmitWaiting(1);
+            if (admit && this.tryClaim(me)) {
+                if (!admitted) {
+                    workshop.admitWaiting(1);
                 }
-            } else if (!this.queue.isEmpty()) {
-                this.workshop.threadSemaphores.get(this.queue.peek()).release();
+                workshop.releaseMutex();
+                return true;
+            }
+            if (timed && expired(deadline)) {
+                workshop.stopWaiting();
+                workshop.releaseMutex();
+                return false;
+            }
+            long spinNanos = 0;
+            if (!admit) {
+                me.target = this;
+                workshop.registerPending(me);
+                workshop.queueForAdmission(me);
             } else {
-                this.workshop.mutex.release();
+                if (!admitted) {
+                    workshop.admitWaiting(1);
+                }
+                if (this.claimOrMarkWaited(me)) {
+                    workshop.releaseMutex();
+                    return true;
+                }
+                workshop.registerPending(me);
+                workshop.waitAdmitted(me);
+                this.queue.add(me);
+                spinNanos = this.spinNanos(me);
             }
+            return workshop.releaseAndAwait(me, this, spinNanos, timed, deadline);
         }
 
-        @Override
-        public void use() {
-            if (this.cycle != null) {
-                try {
-                    for (WorkplaceId id : cycle) {
-                        WorkplaceWrapper workplace = this.workshop.getWorkplaceWrapper(id);
-                        var latch = workplace.latch;
-                        latch.countDown();
-                    }
-                    WorkplaceId cycleStart = this.cycle.peek();
-                    this.latch.await();
-                    this.cycle = null;
-                    if (cycleStart == this.getId()) {
-                        this.workshop.mutex.release();
-                    }
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("panic: unexpected thread interruption");
+        // Called with the mutex held once the owner no longer needs the workplace.
+        // It goes straight to the first waiter, and the workplace that waiter is
+        // switching away from to the first waiter there, and so on down the chain.
+        // The waiters are only woken to return; then the mutex is released.
+        public void release() {
+            this.handOver();
+            this.workshop.releaseMutex();
+        }
+
+        // Like release, but keeps the mutex. The chain ends at a reservation, for
+        // whose request the workplace is then held.
+        private void handOver() {
+            WorkplaceWrapper workplace = this;
+            while (workplace != null) {
+                Waiter next = workplace.queue.peek();
+                if (next == null) {
+                    workplace.endHold(workplace.heldSince);
+                    workplace.owner = FREE;
+                    break;
+                }
+                workplace.queue.remove(next);
+                if (next.reservedFor != null) {
+                    workplace.holdFor(next.reservedFor);
+                    break;
+                }
+                workplace.setOwner(next);
+                this.workshop.completePending(next);
+                // Entrants have no workplace to give up.
+                WorkplaceWrapper from = next.current;
+                if (from != null) {
+                    this.workshop.waitFor.unlink(from.slot);
+                }
+                next.release();
+                workplace = from;
+            }
+        }
+
+        // Called with the mutex held. Returns whether the worker got workplaceTo;
+        // a switch that closes a cycle never has to wait, even if it is timed.
+        public boolean switchTo(Waiter me, WorkplaceWrapper workplaceTo, boolean timed, long deadline) {
+            ConcurrentWorkshop workshop = this.workshop;
+            WaitForGraph waitFor = workshop.waitFor;
+            if (workplaceTo == this) {
+                workshop.releaseMutex();
+                return true;
+            }
+            if (workplaceTo.tryClaim(me)) {
+                this.release();
+                return true;
+            }
+            if (waitFor.next(workplaceTo.slot) == this.slot) {
+                workshop.swap(me, this, workplaceTo);
+                return true;
+            }
+            if (waitFor.closesCycle(this.slot, workplaceTo.slot)) {
+                waitFor.link(this.slot, workplaceTo.slot);
+                workshop.rotateCycle(me, this.slot);
+                return true;
+            }
+            if (workplaceTo.heldFor != null) {
+                workplaceTo.lendTo(me);
+                this.release();
+                return true;
+            }
+            if (timed && expired(deadline)) {
+                workshop.releaseMutex();
+                return false;
+            }
+            if (workplaceTo.claimOrMarkWaited(me)) {
+                this.release();
+                return true;
+            }
+            waitFor.link(this.slot, workplaceTo.slot);
+            workshop.registerPending(me);
+            workplaceTo.queueSwitcher(me);
+            long spinNanos = workplaceTo.spinNanos(me);
+            return workshop.releaseAndAwait(me, workplaceTo, spinNanos, timed, deadline);
+        }
+
+        // Called by the worker that last started to switch away from this
+        // workplace once it calls into the workshop again.
+        void returned(Waiter previous) {
+            if (VACATED_BY.compareAndSet(this, previous, null)) {
+                Thread waiter = this.vacatingWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
                 }
             }
+        }
+
+        // Vacating ends right before the previous occupant returns from switchTo,
+        // and the thread it wakes, quite possibly this one, tends to run first:
+        // it could start using the workplace before the switchTo caller has even
+        // seen the switch done. So if this worker took the workplace while the
+        // previous occupant was still switching away, the previous one counts as
+        // returned only once it calls into the workshop again, as the cycles of
+        // the original solution did. The limit of this rule: a worker must not
+        // wait for whoever took its old workplace during the switch to use it
+        // before calling into the workshop again, or the two wait for each other.
+        // A worker that takes the workplace after the switch is done waits for
+        // nobody, even though the previous one may not have returned yet.
+        private void awaitReturned() {
+            Waiter previous = this.vacatedBy;
+            if (previous == null) {
+                return;
+            }
+            this.vacatingWaiter = Thread.currentThread();
+            boolean interrupted = false;
+            while (this.vacatedBy == previous) {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+            this.vacatingWaiter = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void use() {
+            this.occupant.returned();
+            this.awaitVacated();
+            this.awaitReturned();
 
             this.workplace.use();
         }
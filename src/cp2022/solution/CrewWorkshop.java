@@ -0,0 +1,20 @@
+package cp2022.solution;
+
+import cp2022.base.WorkplaceId;
+
+import java.util.Map;
+
+// A workshop whose sessions may also enter as a crew, each member at its own
+// workplace and all of them at once. Until then the crew waits as a unit, in
+// turn at each of its workplaces, and those it already has are kept from other
+// entrants but not from workers switching. It counts as one entry per member,
+// so a crew overtakes a waiting entrant no more often than its members would
+// one by one, and is overtaken no more often than one. Once in, every member
+// goes on on its own.
+public interface CrewWorkshop extends SessionWorkshop {
+
+    // Enters every session, all of them outside the workshop, at the workplace
+    // it is mapped to; returns when all of them are in.
+    public void enterCrew(Map<? extends WorkshopSession, ? extends WorkplaceId> crew);
+
+}
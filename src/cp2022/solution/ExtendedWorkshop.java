@@ -0,0 +1,8 @@
+package cp2022.solution;
+
+// Every extension of a Workshop at once, as WorkshopFactory makes them. Callers
+// that need only some of them keep the narrower interface.
+public interface ExtendedWorkshop extends TimedWorkshop, AsyncWorkshop, CrewWorkshop, RouteWorkshop,
+        MultiWorkplaceWorkshop {
+
+}
@@ -0,0 +1,22 @@
+package cp2022.solution;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.base.Workshop;
+
+import java.util.Collection;
+import java.util.List;
+
+// A workshop whose workers may hold several workplaces at once, taken all
+// together: a worker never holds some of them while waiting for the rest.
+// The workplaces come back in the order they were asked for. A worker holding
+// several may switch again or leave, which gives up all of them.
+public interface MultiWorkplaceWorkshop extends Workshop {
+
+    public List<Workplace> enterAll(Collection<? extends WorkplaceId> wids);
+
+    // Keeps what it holds only if it can take the rest of the new workplaces
+    // right away; otherwise it gives up everything it holds while it waits.
+    public List<Workplace> switchToAll(Collection<? extends WorkplaceId> wids);
+
+}
@@ -0,0 +1,24 @@
+package cp2022.solution;
+
+import cp2022.base.WorkplaceId;
+import cp2022.base.Workshop;
+
+import java.util.List;
+
+// A workshop that runs a worker's whole itinerary in one call. Walking a route
+// is the same enter, switchTo, use and leave calls made one by one, so route
+// walkers and other workers can share the workplaces. The workshop does not act
+// on the stations ahead: a walker queues for its next station only when it
+// switches there, like any other worker. A route only saves looking up its
+// workplaces on every walk.
+public interface RouteWorkshop extends Workshop {
+
+    public WorkshopRoute newRoute(List<? extends WorkplaceId> route);
+
+    // A route for any number of workers who all visit the same stations in the
+    // same order. Only as many of them as there are stations are let into the
+    // workshop at a time; the others wait for a slot outside, first come first
+    // served.
+    public WorkshopRoute newAssemblyLine(List<? extends WorkplaceId> stations);
+
+}
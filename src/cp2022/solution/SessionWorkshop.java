@@ -0,0 +1,11 @@
+package cp2022.solution;
+
+import cp2022.base.Workshop;
+
+// A workshop whose workers may also hold a session and move between threads,
+// as executor tasks do. A session is not tied to the thread that opened it.
+public interface SessionWorkshop extends Workshop {
+
+    public WorkshopSession newSession();
+
+}
@@ -0,0 +1,38 @@
+package cp2022.solution;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.base.Workshop;
+
+import java.util.concurrent.TimeUnit;
+
+// A workshop whose workers may give up instead of waiting for as long as it
+// takes. A worker that gives up is left exactly where it was: outside the
+// workshop after a failed enter, at its current workplace after a failed
+// switch, with no trace of the request in any queue. A timed wait also ends
+// early when the thread is interrupted, leaving the interrupt pending. The
+// time limit covers every wait for other workers, including one for the
+// previous occupant to finish switching away, but not the brief wait for the
+// workshop's own lock, so a call may return slightly after its deadline.
+public interface TimedWorkshop extends Workshop {
+
+    // Enters only if that needs no waiting; returns null otherwise.
+    public Workplace tryEnter(WorkplaceId wid);
+
+    // Waits for at most the given time; returns null if it ran out first.
+    public Workplace tryEnter(WorkplaceId wid, long timeout, TimeUnit unit);
+
+    // Switches only if that needs no waiting, as when the switch completes a
+    // cycle of workers waiting for each other; returns null otherwise.
+    public Workplace trySwitchTo(WorkplaceId wid);
+
+    // Waits for at most the given time; returns null if it ran out first.
+    public Workplace trySwitchTo(WorkplaceId wid, long timeout, TimeUnit unit);
+
+    // Like enter, but gives up when the thread is interrupted, or already was.
+    public Workplace enterInterruptibly(WorkplaceId wid) throws InterruptedException;
+
+    // Like switchTo, but gives up when the thread is interrupted, or already was.
+    public Workplace switchToInterruptibly(WorkplaceId wid) throws InterruptedException;
+
+}
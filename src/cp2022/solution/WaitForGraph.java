@@ -0,0 +1,126 @@
+package cp2022.solution;
+
+import java.util.Arrays;
+
+/*
+ * Wait-for graph between workplace slots, used with the workshop mutex held.
+ * Slot s points to slot t while the worker occupying s waits in switchTo for t.
+ * A worker waits for one workplace at most, so apart from a cycle that is
+ * being resolved the graph is a forest of in-trees. Their roots are the slots
+ * of workers that do not wait, and a new edge from -> to closes a cycle exactly
+ * when from is the root of the tree containing to.
+ *
+ * Roots are cached per slot and paths are compressed on every lookup. A cached
+ * root is a slot further down the chain, which need not be its root any more:
+ * adding an edge only extends a chain past its old root, which find() notices
+ * and follows. Removing an edge cuts the chains of the slots that wait for the
+ * one whose edge it was, so their cached roots, which may lie past the cut,
+ * are dropped. Every slot also keeps the list of slots that wait for it, so
+ * that they can be found. A slot without a cached root is never skipped over
+ * by another's cached root, as find() caches the root of every slot it steps
+ * from. So dropping stops below such a slot, and every cached root is dropped
+ * at most once for each lookup that made it: a cut does not cost more than the
+ * lookups it undoes. Trees that the cut does not touch keep their cached roots.
+ */
+final class WaitForGraph {
+
+    static final int NONE = -1;
+
+    private final int[] next;
+    private final int[] root;
+    // The slots that wait for a slot, as a list threaded through the waiting slots.
+    private final int[] firstWaiter;
+    private final int[] nextWaiter;
+    private final int[] previousWaiter;
+
+    WaitForGraph(int size) {
+        this.next = new int[size];
+        Arrays.fill(this.next, NONE);
+        this.root = new int[size];
+        Arrays.fill(this.root, NONE);
+        this.firstWaiter = new int[size];
+        Arrays.fill(this.firstWaiter, NONE);
+        this.nextWaiter = new int[size];
+        this.previousWaiter = new int[size];
+    }
+
+    int next(int slot) {
+        return this.next[slot];
+    }
+
+    // Must be asked before the edge is linked, while the graph has no cycle.
+    boolean closesCycle(int from, int to) {
+        return this.find(to) == from;
+    }
+
+    // From does not wait yet, so it is a root and has no cached root of its own.
+    void link(int from, int to) {
+        this.next[from] = to;
+        int first = this.firstWaiter[to];
+        this.previousWaiter[from] = NONE;
+        this.nextWaiter[from] = first;
+        if (first != NONE) {
+            this.previousWaiter[first] = from;
+        }
+        this.firstWaiter[to] = from;
+    }
+
+    void unlink(int from) {
+        int to = this.next[from];
+        if (to == NONE) {
+            return;
+        }
+        int previous = this.previousWaiter[from];
+        int following = this.nextWaiter[from];
+        if (previous == NONE) {
+            this.firstWaiter[to] = following;
+        } else {
+            this.nextWaiter[previous] = following;
+        }
+        if (following != NONE) {
+            this.previousWaiter[following] = previous;
+        }
+        this.next[from] = NONE;
+        this.root[from] = NONE;
+        this.dropRootsBelow(from);
+    }
+
+    // Walks the slots that wait for top, directly or not, down to those that
+    // have no cached root, and drops the cached roots on the way. Slots are
+    // visited depth first, climbing back up along their edges.
+    private void dropRootsBelow(int top) {
+        int slot = this.firstWaiter[top];
+        while (slot != NONE) {
+            if (this.root[slot] != NONE) {
+                this.root[slot] = NONE;
+                int below = this.firstWaiter[slot];
+                if (below != NONE) {
+                    slot = below;
+                    continue;
+                }
+            }
+            while (slot != top && this.nextWaiter[slot] == NONE) {
+                slot = this.next[slot];
+            }
+            slot = slot == top ? NONE : this.nextWaiter[slot];
+        }
+    }
+
+    private int find(int slot) {
+        int found = slot;
+        while (this.next[found] != NONE) {
+            found = this.step(found);
+        }
+        for (int current = slot; current != found; ) {
+            int following = this.step(current);
+            this.root[current] = found;
+            current = following;
+        }
+        return found;
+    }
+
+    private int step(int slot) {
+        int cached = this.root[slot];
+        return cached != NONE ? cached : this.next[slot];
+    }
+}
@@ -0,0 +1,25 @@
+package cp2022.solution;
+
+import java.util.Locale;
+
+public enum WaitStrategy {
+    // Waiters park at once. The default.
+    PARK,
+    // A worker first in line for a workplace that is usually held only briefly
+    // spins for about that long before parking, since parking and being woken
+    // can take longer than the wait itself. Spinning only pays off when the
+    // holder runs on a core of its own, which the workshop cannot tell, so it
+    // is only used when asked for. It does not suit virtual threads, which
+    // would pin their carrier while spinning.
+    SPIN_THEN_PARK;
+
+    public static final String PROPERTY = "cp2022.workshop.wait";
+
+    static WaitStrategy fromSystemProperty() {
+        String name = System.getProperty(PROPERTY);
+        if (name == null || name.isEmpty()) {
+            return PARK;
+        }
+        return WaitStrategy.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
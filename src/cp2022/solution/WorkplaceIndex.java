@@ -0,0 +1,96 @@
+package cp2022.solution;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+
+import java.util.*;
+
+/*
+ * Immutable WorkplaceId -> workplace lookup built once per workshop.
+ * Ids whose classes define equals/hashCode go to a hash map, all other ids
+ * are kept in an array sorted with WorkplaceId.compareTo and looked up with
+ * a binary search. Neither lookup allocates. Two workplaces with the same id
+ * could never both be reached, so they are refused up front.
+ */
+final class WorkplaceIndex<W extends Workplace> {
+
+    private final Map<WorkplaceId, W> hashed;
+    private final WorkplaceId[] sortedIds;
+    private final Object[] sortedWorkplaces;
+
+    WorkplaceIndex(Collection<W> workplaces) {
+        if (definesHashing(workplaces)) {
+            this.hashed = new HashMap<>(2 * workplaces.size());
+            for (W workplace : workplaces) {
+                if (this.hashed.putIfAbsent(workplace.getId(), workplace) != null) {
+                    throw new RuntimeException("panic: workplace id used twice");
+                }
+            }
+            this.sortedIds = null;
+            this.sortedWorkplaces = null;
+        } else {
+            List<W> sorted = new ArrayList<>(workplaces);
+            sorted.sort((first, second) -> first.getId().compareTo(second.getId()));
+            this.hashed = null;
+            this.sortedIds = new WorkplaceId[sorted.size()];
+            this.sortedWorkplaces = new Object[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                this.sortedIds[i] = sorted.get(i).getId();
+                this.sortedWorkplaces[i] = sorted.get(i);
+            }
+            Set<WorkplaceId> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (WorkplaceId id : this.sortedIds) {
+                if (!seen.add(id)) {
+                    throw new RuntimeException("panic: workplace id used twice");
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    W get(WorkplaceId wid) {
+        if (this.hashed != null) {
+            W workplace = this.hashed.get(wid);
+            if (workplace == null) {
+                throw new RuntimeException("panic: workplace not found");
+            }
+            return workplace;
+        }
+        int low = 0;
+        int high = this.sortedIds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.sortedIds[middle].compareTo(wid) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        // Ids comparing equal are told apart by identity, as the original scan did.
+        for (int i = low; i < this.sortedIds.length && this.sortedIds[i].compareTo(wid) == 0; i++) {
+            if (this.sortedIds[i] == wid) {
+                return (W) this.sortedWorkplaces[i];
+            }
+        }
+        throw new RuntimeException("panic: workplace not found");
+    }
+
+    private static boolean definesHashing(Collection<? extends Workplace> workplaces) {
+        Set<Class<?>> checked = new HashSet<>();
+        for (Workplace workplace : workplaces) {
+            Class<?> idClass = workplace.getId().getClass();
+            if (!checked.add(idClass)) {
+                continue;
+            }
+            try {
+                if (idClass.getMethod("equals", Object.class).getDeclaringClass() == Object.class ||
+                        idClass.getMethod("hashCode").getDeclaringClass() == Object.class) {
+                    return false;
+                }
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package cp2022.solution;
+
+import java.util.Locale;
+
+public enum WorkshopEngine {
+    // Every enter, switchTo and leave is serialized on the workshop-wide mutex.
+    GLOBAL,
+    // Operations that find their workplaces free and nobody waiting claim and
+    // release the per-workplace owner word with a CAS and never touch the mutex.
+    // Waiting, cycle resolution and admission throttling still go through it.
+    STRIPED,
+    // STRIPED for workers running on virtual threads. The mutex is not fair: a
+    // fair hand-off idles until the parked head waiter is mounted on a carrier,
+    // whereas a mounted thread can take it at once. Entry order is still bounded
+    // by the admission window.
+    VIRTUAL;
+
+    public static final String PROPERTY = "cp2022.workshop.engine";
+
+    static WorkshopEngine fromSystemProperty() {
+        String name = System.getProperty(PROPERTY);
+        if (name == null || name.isEmpty()) {
+            return GLOBAL;
+        }
+        return WorkshopEngine.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -18,7 +18,22 @@ public final class WorkshopFactory {
     public final static Workshop newWorkshop(
             Collection<Workplace> workplaces
     ) {
-        return new ConcurrentWorkshop(workplaces);
+        return newWorkshop(workplaces, WorkshopEngine.fromSystemProperty());
+    }
+
+    public final static ExtendedWorkshop newWorkshop(
+            Collection<Workplace> workplaces,
+            WorkshopEngine engine
+    ) {
+        return newWorkshop(workplaces, engine, WaitStrategy.fromSystemProperty());
+    }
+
+    public final static ExtendedWorkshop newWorkshop(
+            Collection<Workplace> workplaces,
+            WorkshopEngine engine,
+            WaitStrategy waitStrategy
+    ) {
+        return new ConcurrentWorkshop(workplaces, engine, waitStrategy);
     }
     
 }
@@ -0,0 +1,11 @@
+package cp2022.solution;
+
+// A fixed itinerary through the workshop, as prepared by a RouteWorkshop.
+public interface WorkshopRoute {
+
+    // Enters at the first workplace of the route, uses every workplace in turn,
+    // switching straight from each to the next, and leaves after the last one.
+    // The calling thread must be outside the workshop.
+    public void walk();
+
+}
@@ -0,0 +1,20 @@
+package cp2022.solution;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+
+// One worker of a SessionWorkshop, identified by this handle instead of by the
+// calling thread. Its calls follow the same rules as those of a Workshop worker,
+// one at a time, but each may come from a different thread.
+public interface WorkshopSession {
+
+    public Workplace enter(WorkplaceId wid);
+
+    public Workplace switchTo(WorkplaceId wid);
+
+    public void leave();
+
+    // Uses the workplace the worker is at.
+    public void use();
+
+}
@@ -4,5 +4,6 @@ public class Main {
     public static void main(String[] args) {
         cp2022.tests.pggp_tests.Main.main(args);
         cp2022.tests.kwasow.KwasowMain.main(args);
+        cp2022.tests.stress.StressMain.main(args);
     }
 }
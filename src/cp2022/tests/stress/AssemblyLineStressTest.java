@@ -0,0 +1,128 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.RouteWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.solution.WorkshopRoute;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+import cp2022.tests.stress.shared.StressWorkplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Thousands of workers walk an assembly line of five stations, while a few
+ * other workers switch at random between the same stations and some more. It
+ * checks exclusive use, that every worker finishes, that no more workers were
+ * on the line at a time than it has stations, that the other workers kept
+ * getting their turns, and that afterwards every workplace is free.
+ */
+public class AssemblyLineStressTest {
+    private static final int STATIONS = 5;
+    private static final int WORKPLACES = 8;
+    private static final int VIRTUAL_WORKERS = 20_000;
+    private static final int PLATFORM_WORKERS = 1_000;
+    private static final int SWITCHERS = 4;
+    private static final long USE_NANOS = 10_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(AssemblyLineStressTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int workers = StressHarness.workers(VIRTUAL_WORKERS, PLATFORM_WORKERS);
+
+        StressReport report = new StressReport();
+        // The other workers use the first and last stations too, but do not count.
+        ThreadLocal<Boolean> walkingLine = ThreadLocal.withInitial(() -> false);
+        AtomicInteger onLine = new AtomicInteger(0);
+        AtomicInteger mostOnLine = new AtomicInteger(0);
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        workplaces.set(0, new StressWorkplace(0, USE_NANOS, report) {
+            @Override
+            public void use() {
+                if (walkingLine.get()) {
+                    mostOnLine.accumulateAndGet(onLine.incrementAndGet(), Math::max);
+                }
+                super.use();
+            }
+        });
+        workplaces.set(STATIONS - 1, new StressWorkplace(STATIONS - 1, USE_NANOS, report) {
+            @Override
+            public void use() {
+                super.use();
+                if (walkingLine.get()) {
+                    onLine.decrementAndGet();
+                }
+            }
+        });
+        List<WorkplaceId> stations = new ArrayList<>(STATIONS);
+        for (int i = 0; i < STATIONS; i++) {
+            stations.add(workplaces.get(i).getId());
+        }
+        RouteWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        WorkshopRoute line = workshop.newAssemblyLine(stations);
+
+        CountDownLatch lineDone = new CountDownLatch(workers);
+        AtomicLong switches = new AtomicLong(0);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                walkingLine.set(true);
+                line.walk();
+                lineDone.countDown();
+            });
+        }
+        Thread[] switchers = new Thread[SWITCHERS];
+        for (int i = 0; i < SWITCHERS; i++) {
+            switchers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                workshop.enter(workplaces.get(random.nextInt(WORKPLACES)).getId()).use();
+                while (lineDone.getCount() > 0) {
+                    workshop.switchTo(workplaces.get(random.nextInt(WORKPLACES)).getId()).use();
+                    switches.incrementAndGet();
+                }
+                workshop.leave();
+            }, "Switching worker " + i);
+            switchers[i].start();
+        }
+        boolean finished = StressHarness.awaitTermination(executor, TIME_LIMIT_SECONDS);
+        try {
+            for (Thread switcher : switchers) {
+                switcher.join(TimeUnit.SECONDS.toMillis(TIME_LIMIT_SECONDS));
+                finished &= !switcher.isAlive();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else if (mostOnLine.get() > STATIONS) {
+            report.fail(mostOnLine.get() + " workers were on a line of " + STATIONS + " stations at once");
+        } else if (switches.get() < SWITCHERS) {
+            report.fail("the other workers switched only " + switches.get() + " times");
+        } else {
+            List<WorkplaceId> everywhere = new ArrayList<>(WORKPLACES);
+            for (Workplace workplace : workplaces) {
+                everywhere.add(workplace.getId());
+            }
+            WorkshopRoute check = workshop.newRoute(everywhere);
+            if (!StressHarness.completesWithin(check::walk, TimeUnit.SECONDS.toMillis(1))) {
+                report.fail("some workplace is not free after every worker left");
+            }
+        }
+        System.out.println(workers + " line workers finished in " + elapsed + "ms, at most "
+                + mostOnLine.get() + " at once; the others switched " + switches.get() + " times");
+        return StressHarness.finish(report);
+    }
+}
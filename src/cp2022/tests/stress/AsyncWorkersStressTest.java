@@ -0,0 +1,105 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.solution.AsyncWorker;
+import cp2022.solution.AsyncWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * 20k asynchronous workers share an executor of 4 threads, while a few blocking
+ * workers use the same workplaces. Each one enters, switches a few times and
+ * leaves, chaining every request on the future of the previous one. With a
+ * thread per waiting worker this could not finish at all. It checks exclusive
+ * use, that every worker finishes and uses its workplace every time, and that
+ * afterwards every workplace can be entered without waiting.
+ */
+public class AsyncWorkersStressTest {
+    private static final int WORKPLACES = 20;
+    private static final int ASYNC_WORKERS = 20_000;
+    private static final int BLOCKING_WORKERS = 8;
+    private static final int EXECUTOR_THREADS = 4;
+    private static final int SWITCHES = 3;
+    private static final long USE_NANOS = 5_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(AsyncWorkersStressTest.class, engine);
+
+        StressReport report = new StressReport();
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        AsyncWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        ExecutorService executor = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+        CountDownLatch done = new CountDownLatch(ASYNC_WORKERS + BLOCKING_WORKERS);
+        AtomicLong uses = new AtomicLong(0);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < BLOCKING_WORKERS; i++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int visit = 0; visit < ASYNC_WORKERS / BLOCKING_WORKERS / 10; visit++) {
+                    workshop.enter(workplaces.get(random.nextInt(WORKPLACES)).getId()).use();
+                    for (int j = 0; j < SWITCHES; j++) {
+                        workshop.switchTo(workplaces.get(random.nextInt(WORKPLACES)).getId()).use();
+                    }
+                    workshop.leave();
+                }
+                done.countDown();
+            }, "Blocking worker " + i).start();
+        }
+        for (int i = 0; i < ASYNC_WORKERS; i++) {
+            executor.execute(() -> {
+                AsyncWorker worker = workshop.newAsyncWorker(executor);
+                CompletableFuture<Workplace> workplace = worker.enterAsync(StressHarness.randomId(workplaces));
+                for (int j = 0; j < SWITCHES; j++) {
+                    workplace = workplace.thenCompose(current -> {
+                        current.use();
+                        uses.incrementAndGet();
+                        return worker.switchToAsync(StressHarness.randomId(workplaces));
+                    });
+                }
+                workplace.thenCompose(current -> {
+                    current.use();
+                    uses.incrementAndGet();
+                    return worker.leaveAsync();
+                }).whenComplete((result, failure) -> {
+                    if (failure != null) {
+                        report.fail("an asynchronous worker failed: " + failure);
+                    }
+                    done.countDown();
+                });
+            });
+        }
+        boolean finished = StressHarness.await(done, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else if (uses.get() != (long) ASYNC_WORKERS * (SWITCHES + 1)) {
+            report.fail("asynchronous workers used their workplaces " + uses.get() + " times");
+        } else {
+            AsyncWorker checker = workshop.newAsyncWorker(executor);
+            for (Workplace workplace : workplaces) {
+                if (!checker.enterAsync(workplace.getId()).isDone()) {
+                    report.fail(workplace.getId() + " is not free after every worker left");
+                    break;
+                }
+                checker.leaveAsync();
+            }
+        }
+        executor.shutdownNow();
+        System.out.println(ASYNC_WORKERS + " asynchronous workers finished in " + elapsed + "ms on "
+                + EXECUTOR_THREADS + " threads");
+        return StressHarness.finish(report);
+    }
+}
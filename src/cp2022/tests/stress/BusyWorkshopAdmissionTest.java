@@ -0,0 +1,84 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.base.Workshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A workshop that never empties: a resident worker keeps the first workplace
+ * until every visitor is done, while the visitors keep entering, using one of
+ * the other workplaces and leaving. Admission must not stop after the first 2N
+ * entries just because nobody is ever alone in the workshop; if it does, the
+ * visitors wait for the resident and the resident for them.
+ *
+ * It checks exclusive use and that every visitor finishes, which none would if
+ * admission stopped. It does not check the 2N bound: a worker can be delayed
+ * between announcing its request to an outside monitor and making it, on any
+ * thread when there are several processors, and with a bound this small such
+ * a delay shows up as overtakes the workshop never allowed.
+ */
+public class BusyWorkshopAdmissionTest {
+    private static final int WORKPLACES = 4;
+    private static final int VISITORS = 32;
+    private static final int VISITS = 500;
+    private static final long USE_NANOS = 10_000;
+    private static final long TIME_LIMIT_SECONDS = 120;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(BusyWorkshopAdmissionTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+
+        StressReport report = new StressReport();
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        Workshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+
+        CountDownLatch residentInside = new CountDownLatch(1);
+        CountDownLatch visitorsDone = new CountDownLatch(VISITORS);
+        long start = System.currentTimeMillis();
+        executor.execute(() -> {
+            Workplace workplace = workshop.enter(workplaces.get(0).getId());
+            residentInside.countDown();
+            try {
+                while (!visitorsDone.await(USE_NANOS, TimeUnit.NANOSECONDS)) {
+                    workplace.use();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+            workshop.leave();
+        });
+        for (int i = 0; i < VISITORS; i++) {
+            executor.execute(() -> {
+                try {
+                    residentInside.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("panic: unexpected thread interruption");
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < VISITS; j++) {
+                    Workplace workplace = workshop.enter(workplaces.get(1 + random.nextInt(WORKPLACES - 1)).getId());
+                    workplace.use();
+                    workshop.leave();
+                }
+                visitorsDone.countDown();
+            });
+        }
+        boolean finished = StressHarness.awaitTermination(executor, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("visitors did not finish within " + TIME_LIMIT_SECONDS + "s");
+        }
+        System.out.println(VISITORS * VISITS + " visits finished in " + elapsed + "ms");
+        return StressHarness.finish(report);
+    }
+}
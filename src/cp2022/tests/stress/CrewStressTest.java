@@ -0,0 +1,184 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.CrewWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.solution.WorkshopSession;
+import cp2022.tests.stress.shared.OvertakeMonitor;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Crews of two or three sessions keep entering together at random workplaces,
+ * after which every member switches once and leaves in a task of its own,
+ * while many more workers enter and switch one by one. It checks that every
+ * member holds its workplace as soon as the crew is in, that no workplace is
+ * held twice at once, exclusive use, that everybody finishes, and that
+ * afterwards every workplace can be entered without waiting. It also checks
+ * that neither a crew nor a single entrant is overtaken 2N times, a crew
+ * counting as one entry per member (see OvertakeMonitor). The first visit of
+ * every crew and entrant is left out of that: its code still runs
+ * interpreted, so it is far more likely to be preempted between taking its
+ * number and making its request, and a platform thread can then stay off the
+ * CPU for ms while the others enter.
+ */
+public class CrewStressTest {
+    private static final int WORKPLACES = 10;
+    private static final int VIRTUAL_CREWS = 2_000;
+    private static final int PLATFORM_CREWS = 100;
+    private static final int VIRTUAL_ENTRANTS = 5_000;
+    private static final int PLATFORM_ENTRANTS = 500;
+    private static final int VISITS = 3;
+    private static final long USE_NANOS = 10_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(CrewStressTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int crews = StressHarness.workers(VIRTUAL_CREWS, PLATFORM_CREWS);
+        int entrants = StressHarness.workers(VIRTUAL_ENTRANTS, PLATFORM_ENTRANTS);
+
+        StressReport report = new StressReport();
+        OvertakeMonitor monitor = new OvertakeMonitor((crews + entrants) * VISITS, 2 * WORKPLACES, report);
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        Map<WorkplaceId, Integer> slots = new HashMap<>();
+        for (int i = 0; i < WORKPLACES; i++) {
+            slots.put(workplaces.get(i).getId(), i);
+        }
+        CrewWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        AtomicReferenceArray<Object> holders = new AtomicReferenceArray<>(WORKPLACES);
+        CountDownLatch done = new CountDownLatch(crews + entrants);
+        AtomicLong crewEntries = new AtomicLong(0);
+        ExecutorService members = executor;
+
+        // Made up front, so that no worker is the first to load the session class:
+        // on a virtual thread that blocks in file I/O, for which the scheduler adds
+        // a carrier for good, and the carriers' time slices would open up the gap
+        // between an entrant taking its number from the monitor and its request.
+        List<List<WorkshopSession>> crewSessions = new ArrayList<>(crews);
+        for (int i = 0; i < crews; i++) {
+            List<WorkshopSession> sessions = new ArrayList<>();
+            for (int j = 2 + ThreadLocalRandom.current().nextInt(2); j > 0; j--) {
+                sessions.add(workshop.newSession());
+            }
+            crewSessions.add(sessions);
+        }
+
+        long start = System.currentTimeMillis();
+        for (List<WorkshopSession> sessions : crewSessions) {
+            executor.execute(() -> {
+                for (int visit = 0; visit < VISITS; visit++) {
+                    Map<WorkshopSession, WorkplaceId> crew = new LinkedHashMap<>();
+                    List<WorkplaceId> wids = randomIds(workplaces, sessions.size());
+                    for (int j = 0; j < sessions.size(); j++) {
+                        crew.put(sessions.get(j), wids.get(j));
+                    }
+                    int request = monitor.enterRequested();
+                    workshop.enterCrew(crew);
+                    if (visit == 0) {
+                        monitor.crewEnteredUnchecked(request, crew.size());
+                    } else {
+                        monitor.crewEntered(request, crew.size());
+                    }
+                    crewEntries.incrementAndGet();
+                    // Every member must hold its workplace before any of them moves on.
+                    for (Map.Entry<WorkshopSession, WorkplaceId> entry : crew.entrySet()) {
+                        hold(holders, slots.get(entry.getValue()), entry.getKey(), report);
+                    }
+                    CountDownLatch crewDone = new CountDownLatch(sessions.size());
+                    for (Map.Entry<WorkshopSession, WorkplaceId> entry : crew.entrySet()) {
+                        WorkshopSession session = entry.getKey();
+                        int slot = slots.get(entry.getValue());
+                        members.execute(() -> {
+                            session.use();
+                            holders.compareAndSet(slot, session, null);
+                            WorkplaceId wid = StressHarness.randomId(workplaces);
+                            session.switchTo(wid);
+                            hold(holders, slots.get(wid), session, report);
+                            session.use();
+                            holders.compareAndSet(slots.get(wid), session, null);
+                            session.leave();
+                            crewDone.countDown();
+                        });
+                    }
+                    try {
+                        crewDone.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("panic: unexpected thread interruption");
+                    }
+                }
+                done.countDown();
+            });
+        }
+        for (int i = 0; i < entrants; i++) {
+            executor.execute(() -> {
+                Thread me = Thread.currentThread();
+                for (int visit = 0; visit < VISITS; visit++) {
+                    WorkplaceId wid = StressHarness.randomId(workplaces);
+                    int request = monitor.enterRequested();
+                    Workplace workplace = workshop.enter(wid);
+                    if (visit == 0) {
+                        monitor.enteredUnchecked(request);
+                    } else {
+                        monitor.entered(request);
+                    }
+                    hold(holders, slots.get(wid), me, report);
+                    workplace.use();
+                    holders.compareAndSet(slots.get(wid), me, null);
+                    wid = StressHarness.randomId(workplaces);
+                    workplace = workshop.switchTo(wid);
+                    hold(holders, slots.get(wid), me, report);
+                    workplace.use();
+                    holders.compareAndSet(slots.get(wid), me, null);
+                    workshop.leave();
+                }
+                done.countDown();
+            });
+        }
+        boolean finished = StressHarness.await(done, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+        executor.shutdownNow();
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else {
+            StressHarness.checkAllFree(workshop, workplaces, report);
+            monitor.countOvertakes();
+        }
+        System.out.println(crews + " crews and " + entrants + " single workers finished in " + elapsed
+                + "ms, the crews entering " + crewEntries.get() + " times; worst wait was "
+                + monitor.getWorst() + " entries (bound " + 2 * WORKPLACES + ")");
+        return StressHarness.finish(report);
+    }
+
+    // Marks the workplace as held by the worker, which must have just got it.
+    private static void hold(AtomicReferenceArray<Object> holders, int slot, Object worker, StressReport report) {
+        if (!holders.compareAndSet(slot, null, worker)) {
+            report.fail("two workers hold workplace " + slot + " at the same time");
+        }
+    }
+
+    private static List<WorkplaceId> randomIds(List<Workplace> workplaces, int count) {
+        List<WorkplaceId> wids = new ArrayList<>(count);
+        while (wids.size() < count) {
+            WorkplaceId wid = StressHarness.randomId(workplaces);
+            if (!wids.contains(wid)) {
+                wids.add(wid);
+            }
+        }
+        return wids;
+    }
+}
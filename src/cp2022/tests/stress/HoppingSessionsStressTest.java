@@ -0,0 +1,128 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.solution.SessionWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.solution.WorkshopSession;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Thousands of workers hold sessions and make every call, and every use, in a
+ * task of its own, so they keep moving from thread to thread, while a few
+ * workers use the same workplaces from threads of their own. It checks
+ * exclusive use, that every worker finishes and uses its workplace every time,
+ * that the sessions really changed threads, and that afterwards every
+ * workplace can be entered without waiting.
+ */
+public class HoppingSessionsStressTest {
+    private static final int WORKPLACES = 20;
+    private static final int VIRTUAL_SESSIONS = 20_000;
+    private static final int PLATFORM_SESSIONS = 1_000;
+    private static final int THREAD_WORKERS = 4;
+    private static final int SWITCHES = 3;
+    private static final long USE_NANOS = 10_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(HoppingSessionsStressTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int sessions = StressHarness.workers(VIRTUAL_SESSIONS, PLATFORM_SESSIONS);
+
+        StressReport report = new StressReport();
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        SessionWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        CountDownLatch done = new CountDownLatch(sessions + THREAD_WORKERS);
+        AtomicLong uses = new AtomicLong(0);
+        AtomicLong hops = new AtomicLong(0);
+
+        int visits = sessions / THREAD_WORKERS / 10;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < THREAD_WORKERS; i++) {
+            new Thread(() -> {
+                for (int visit = 0; visit < visits; visit++) {
+                    workshop.enter(StressHarness.randomId(workplaces)).use();
+                    for (int j = 0; j < SWITCHES; j++) {
+                        workshop.switchTo(StressHarness.randomId(workplaces)).use();
+                    }
+                    workshop.leave();
+                }
+                done.countDown();
+            }, "Thread worker " + i).start();
+        }
+        for (int i = 0; i < sessions; i++) {
+            new Hopper(workshop.newSession(), workplaces, executor, uses, hops, done).submit();
+        }
+        boolean finished = StressHarness.await(done, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+        executor.shutdownNow();
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else if (uses.get() != (long) sessions * (SWITCHES + 1)) {
+            report.fail("sessions used their workplaces " + uses.get() + " times");
+        } else if (hops.get() == 0) {
+            report.fail("no session changed threads");
+        } else {
+            StressHarness.checkAllFree(workshop, workplaces, report);
+        }
+        System.out.println(sessions + " session workers finished in " + elapsed + "ms, changing threads "
+                + hops.get() + " times");
+        return StressHarness.finish(report);
+    }
+
+    // Makes one call of its session per task: enter, then a use and a switch in
+    // turns, then a last use and leave.
+    private static class Hopper implements Runnable {
+        private final WorkshopSession session;
+        private final List<Workplace> workplaces;
+        private final ExecutorService executor;
+        private final AtomicLong uses;
+        private final AtomicLong hops;
+        private final CountDownLatch done;
+        private int step;
+        private Thread lastThread;
+
+        Hopper(WorkshopSession session, List<Workplace> workplaces, ExecutorService executor,
+               AtomicLong uses, AtomicLong hops, CountDownLatch done) {
+            this.session = session;
+            this.workplaces = workplaces;
+            this.executor = executor;
+            this.uses = uses;
+            this.hops = hops;
+            this.done = done;
+        }
+
+        void submit() {
+            this.executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            if (this.lastThread != null && this.lastThread != Thread.currentThread()) {
+                this.hops.incrementAndGet();
+            }
+            this.lastThread = Thread.currentThread();
+            if (this.step == 0) {
+                this.session.enter(StressHarness.randomId(this.workplaces));
+            } else if (this.step % 2 == 1) {
+                this.session.use();
+                this.uses.incrementAndGet();
+            } else if (this.step < 2 * SWITCHES + 1) {
+                this.session.switchTo(StressHarness.randomId(this.workplaces));
+            } else {
+                this.session.leave();
+                this.done.countDown();
+                return;
+            }
+            this.step++;
+            this.submit();
+        }
+    }
+}
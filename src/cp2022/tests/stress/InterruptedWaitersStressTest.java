@@ -0,0 +1,153 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.solution.TimedWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Thousands of workers enter and switch interruptibly while another thread
+ * keeps interrupting them at random, so that many give up while queued for
+ * admission or for a workplace, or while part of a cycle. Next to them a few
+ * workers enter and switch as usual. The same load runs once without the
+ * interrupts for comparison. It checks exclusive use, that everybody finishes,
+ * that the workers who gave up left nothing behind (afterwards every workplace
+ * must be free to enter without waiting) and that they did not slow down the
+ * others: those must switch about as fast as without the interrupts.
+ */
+public class InterruptedWaitersStressTest {
+    private static final int WORKPLACES = 10;
+    private static final int VIRTUAL_VICTIMS = 5_000;
+    private static final int PLATFORM_VICTIMS = 500;
+    private static final int BYSTANDERS = 4;
+    private static final int VISITS = 5;
+    private static final int SWITCHES = 3;
+    private static final long USE_NANOS = 10_000;
+    private static final long INTERRUPT_EVERY_NANOS = 20_000;
+    // How much slower the other workers may switch with the interrupts going on.
+    private static final double SLOWDOWN = 2.5;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(InterruptedWaitersStressTest.class, engine);
+
+        StressReport report = new StressReport();
+        double quiet = runOnce(engine, false, report);
+        double interrupted = report.failed() ? 0 : runOnce(engine, true, report);
+        if (!report.failed() && interrupted > SLOWDOWN * quiet) {
+            report.fail("the other workers switched in " + format(interrupted) + " on average with the interrupts, "
+                    + format(quiet) + " without");
+        }
+        return StressHarness.finish(report);
+    }
+
+    // Returns the mean time the bystanders took to switch.
+    private static double runOnce(WorkshopEngine engine, boolean interrupting, StressReport report) {
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int victims = StressHarness.workers(VIRTUAL_VICTIMS, PLATFORM_VICTIMS);
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        TimedWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+
+        AtomicReferenceArray<Thread> threads = new AtomicReferenceArray<>(victims);
+        CountDownLatch victimsDone = new CountDownLatch(victims);
+        AtomicLong gaveUp = new AtomicLong(0);
+        AtomicLong switchNanos = new AtomicLong(0);
+        AtomicLong switches = new AtomicLong(0);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < victims; i++) {
+            int victim = i;
+            executor.execute(() -> {
+                threads.set(victim, Thread.currentThread());
+                for (int visit = 0; visit < VISITS; visit++) {
+                    Workplace workplace;
+                    try {
+                        workplace = workshop.enterInterruptibly(StressHarness.randomId(workplaces));
+                    } catch (InterruptedException e) {
+                        gaveUp.incrementAndGet();
+                        continue;
+                    }
+                    workplace.use();
+                    for (int j = 0; j < SWITCHES; j++) {
+                        try {
+                            workplace = workshop.switchToInterruptibly(StressHarness.randomId(workplaces));
+                        } catch (InterruptedException e) {
+                            gaveUp.incrementAndGet();
+                        }
+                        workplace.use();
+                    }
+                    workshop.leave();
+                }
+                threads.set(victim, null);
+                victimsDone.countDown();
+            });
+        }
+        Thread[] bystanders = new Thread[BYSTANDERS];
+        for (int i = 0; i < BYSTANDERS; i++) {
+            bystanders[i] = new Thread(() -> {
+                Workplace workplace = workshop.enter(StressHarness.randomId(workplaces));
+                while (victimsDone.getCount() > 0) {
+                    workplace.use();
+                    long before = System.nanoTime();
+                    workplace = workshop.switchTo(StressHarness.randomId(workplaces));
+                    switchNanos.addAndGet(System.nanoTime() - before);
+                    switches.incrementAndGet();
+                }
+                workshop.leave();
+            }, "Bystander " + i);
+            bystanders[i].start();
+        }
+        if (interrupting) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (victimsDone.getCount() > 0 && System.currentTimeMillis() - start < TIME_LIMIT_SECONDS * 1000) {
+                Thread thread = threads.get(random.nextInt(victims));
+                if (thread != null) {
+                    thread.interrupt();
+                }
+                LockSupport.parkNanos(INTERRUPT_EVERY_NANOS);
+            }
+        }
+        boolean finished = StressHarness.awaitTermination(executor, TIME_LIMIT_SECONDS);
+        try {
+            for (Thread bystander : bystanders) {
+                bystander.join(TimeUnit.SECONDS.toMillis(TIME_LIMIT_SECONDS));
+                finished &= !bystander.isAlive();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else {
+            for (Workplace workplace : workplaces) {
+                if (workshop.tryEnter(workplace.getId()) == null) {
+                    report.fail(workplace.getId() + " is not free after every worker left");
+                    break;
+                }
+                workshop.leave();
+            }
+        }
+        double mean = switches.get() == 0 ? 0 : (double) switchNanos.get() / switches.get();
+        System.out.println(victims + " workers finished in " + elapsed + "ms " + (interrupting
+                ? "with interrupts, giving up " + gaveUp.get() + " times" : "without interrupts")
+                + "; the others switched in " + format(mean) + " on average");
+        return mean;
+    }
+
+    private static String format(double nanos) {
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
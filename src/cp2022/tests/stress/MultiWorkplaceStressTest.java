@@ -0,0 +1,150 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.MultiWorkplaceWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.OvertakeMonitor;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Thousands of workers take two or three random workplaces at once, switch to
+ * another such set and then to a single workplace, while as many others enter
+ * and switch one workplace at a time, so that single workers waiting where
+ * they stand and workers waiting for several workplaces keep crossing. Every
+ * worker marks what it holds for as long as it holds it. It checks that no
+ * workplace was held by two workers at once, exclusive use, that no request,
+ * for one workplace or several, waits longer than the starvation bound (see
+ * OvertakeMonitor), that everybody finishes, and that afterwards all
+ * workplaces can be taken together.
+ */
+public class MultiWorkplaceStressTest {
+    private static final int WORKPLACES = 10;
+    private static final int VIRTUAL_WORKERS = 10_000;
+    private static final int PLATFORM_WORKERS = 1_000;
+    private static final int VISITS = 3;
+    private static final long USE_NANOS = 10_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(MultiWorkplaceStressTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int workers = StressHarness.workers(VIRTUAL_WORKERS, PLATFORM_WORKERS);
+
+        StressReport report = new StressReport();
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        Map<WorkplaceId, Integer> slots = new HashMap<>();
+        for (int i = 0; i < WORKPLACES; i++) {
+            slots.put(workplaces.get(i).getId(), i);
+        }
+        MultiWorkplaceWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        Holders holders = new Holders(slots, report);
+        OvertakeMonitor monitor = new OvertakeMonitor(workers * VISITS, 2 * WORKPLACES, report);
+        AtomicLong groups = new AtomicLong(0);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < workers; i++) {
+            boolean several = i % 2 == 0;
+            executor.execute(() -> {
+                for (int visit = 0; visit < VISITS; visit++) {
+                    List<WorkplaceId> wids = several ? randomIds(workplaces) : List.of(StressHarness.randomId(workplaces));
+                    int request = monitor.enterRequested();
+                    List<Workplace> held = several ? workshop.enterAll(wids) : List.of(workshop.enter(wids.get(0)));
+                    if (visit == 0) {
+                        monitor.enteredUnchecked(request);
+                    } else {
+                        monitor.entered(request);
+                    }
+                    holders.useAll(held);
+
+                    wids = several ? randomIds(workplaces) : List.of(StressHarness.randomId(workplaces));
+                    int entries = monitor.switchRequested();
+                    held = several ? workshop.switchToAll(wids) : List.of(workshop.switchTo(wids.get(0)));
+                    monitor.switched(entries);
+                    holders.useAll(held);
+
+                    WorkplaceId wid = StressHarness.randomId(workplaces);
+                    entries = monitor.switchRequested();
+                    held = List.of(workshop.switchTo(wid));
+                    monitor.switched(entries);
+                    holders.useAll(held);
+                    if (several) {
+                        groups.addAndGet(2);
+                    }
+                    workshop.leave();
+                }
+            });
+        }
+        boolean finished = StressHarness.awaitTermination(executor, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else {
+            List<WorkplaceId> everything = new ArrayList<>(slots.keySet());
+            if (!StressHarness.completesWithin(() -> workshop.enterAll(everything), TimeUnit.SECONDS.toMillis(1))) {
+                report.fail("some workplace is not free after every worker left");
+            }
+            monitor.countOvertakes();
+        }
+        System.out.println(workers + " workers finished in " + elapsed + "ms, taking "
+                + groups.get() + " sets of workplaces; worst wait was "
+                + monitor.getWorst() + " entries (bound " + 2 * WORKPLACES + ")");
+        return StressHarness.finish(report);
+    }
+
+    // Two or three distinct workplaces in random order.
+    private static List<WorkplaceId> randomIds(List<Workplace> workplaces) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = 2 + random.nextInt(2);
+        List<WorkplaceId> wids = new ArrayList<>(count);
+        while (wids.size() < count) {
+            WorkplaceId wid = StressHarness.randomId(workplaces);
+            if (!wids.contains(wid)) {
+                wids.add(wid);
+            }
+        }
+        return wids;
+    }
+
+    // Which thread holds each workplace, set right after it got the workplace
+    // and cleared right before it gives it up.
+    private static class Holders {
+        private final Map<WorkplaceId, Integer> slots;
+        private final AtomicReferenceArray<Thread> holders;
+        private final StressReport report;
+
+        Holders(Map<WorkplaceId, Integer> slots, StressReport report) {
+            this.slots = slots;
+            this.holders = new AtomicReferenceArray<>(slots.size());
+            this.report = report;
+        }
+
+        void useAll(List<Workplace> held) {
+            Thread me = Thread.currentThread();
+            for (Workplace workplace : held) {
+                if (!this.holders.compareAndSet(this.slots.get(workplace.getId()), null, me)) {
+                    this.report.fail("two workers hold " + workplace.getId() + " at the same time");
+                }
+            }
+            for (Workplace workplace : held) {
+                workplace.use();
+            }
+            for (Workplace workplace : held) {
+                this.holders.compareAndSet(this.slots.get(workplace.getId()), me, null);
+            }
+        }
+    }
+}
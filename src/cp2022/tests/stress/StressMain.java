@@ -0,0 +1,49 @@
+package cp2022.tests.stress;
+
+import cp2022.solution.WorkshopEngine;
+
+public class StressMain {
+
+    // Runs every stress test, even after one failed, and exits with status 1
+    // if any did, so that a failure is not lost at the end of a long log.
+    public static void main(String[] args) {
+        boolean passed = true;
+        // Runs 100k virtual workers against the engine meant for them, and
+        // against the striped engine it is derived from for comparison.
+        passed &= VirtualWorkersStressTest.run(WorkshopEngine.VIRTUAL);
+        passed &= VirtualWorkersStressTest.run(WorkshopEngine.STRIPED);
+        // A worker waiting for the next occupant of the workplace it left must not block it.
+        passed &= WaitingPredecessorStressTest.run(WorkshopEngine.STRIPED);
+        passed &= WaitingPredecessorStressTest.run(WorkshopEngine.GLOBAL);
+        // A workshop that never empties must keep admitting new workers.
+        passed &= BusyWorkshopAdmissionTest.run(WorkshopEngine.STRIPED);
+        passed &= BusyWorkshopAdmissionTest.run(WorkshopEngine.GLOBAL);
+        // Workers that give up must leave no trace in queues or accounting.
+        passed &= TimedWaitStressTest.run(WorkshopEngine.STRIPED);
+        passed &= TimedWaitStressTest.run(WorkshopEngine.GLOBAL);
+        // Thousands of asynchronous workers share a few executor threads.
+        passed &= AsyncWorkersStressTest.run(WorkshopEngine.STRIPED);
+        passed &= AsyncWorkersStressTest.run(WorkshopEngine.GLOBAL);
+        // Interrupted waiters must back out without slowing the others down.
+        passed &= InterruptedWaitersStressTest.run(WorkshopEngine.STRIPED);
+        passed &= InterruptedWaitersStressTest.run(WorkshopEngine.GLOBAL);
+        // Workers holding sessions make every call from a different thread.
+        passed &= HoppingSessionsStressTest.run(WorkshopEngine.STRIPED);
+        passed &= HoppingSessionsStressTest.run(WorkshopEngine.GLOBAL);
+        // An assembly line shares its stations with workers switching on their own.
+        passed &= AssemblyLineStressTest.run(WorkshopEngine.STRIPED);
+        passed &= AssemblyLineStressTest.run(WorkshopEngine.GLOBAL);
+        // Workers taking several workplaces at once cross workers taking one.
+        passed &= MultiWorkplaceStressTest.run(WorkshopEngine.STRIPED);
+        passed &= MultiWorkplaceStressTest.run(WorkshopEngine.GLOBAL);
+        // Crews enter together among workers entering one by one.
+        passed &= CrewStressTest.run(WorkshopEngine.STRIPED);
+        passed &= CrewStressTest.run(WorkshopEngine.GLOBAL);
+
+        if (!passed) {
+            System.out.println("\nSome stress tests FAILED.");
+            System.exit(1);
+        }
+    }
+
+}
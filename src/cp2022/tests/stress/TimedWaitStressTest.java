@@ -0,0 +1,108 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.solution.TimedWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * 100k workers crowd a few workplaces, mixing blocking, non-blocking and timed
+ * enters and switches, so that most timed requests run out while queued for
+ * admission or for a workplace, and some in the middle of a cycle. On older
+ * runtimes it falls back to fewer platform threads, as VirtualWorkersStressTest
+ * does. It checks exclusive use, that every worker finishes and that the
+ * workers who gave up left nothing behind: afterwards every workplace must be
+ * free to enter without waiting.
+ */
+public class TimedWaitStressTest {
+    private static final int WORKPLACES = 20;
+    private static final int VIRTUAL_WORKERS = 100_000;
+    private static final int PLATFORM_WORKERS = 2_000;
+    private static final int SWITCHES = 3;
+    private static final long USE_NANOS = 20_000;
+    private static final long MAX_TIMEOUT_MICROS = 2_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(TimedWaitStressTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int workers = StressHarness.workers(VIRTUAL_WORKERS, PLATFORM_WORKERS);
+
+        StressReport report = new StressReport();
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        TimedWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+
+        AtomicLong gaveUp = new AtomicLong(0);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Workplace workplace = null;
+                Workplace target = workplaces.get(random.nextInt(WORKPLACES));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        workplace = workshop.enter(target.getId());
+                        break;
+                    case 1:
+                        workplace = workshop.tryEnter(target.getId());
+                        break;
+                    default:
+                        workplace = workshop.tryEnter(target.getId(),
+                                random.nextLong(MAX_TIMEOUT_MICROS), TimeUnit.MICROSECONDS);
+                }
+                if (workplace == null) {
+                    gaveUp.incrementAndGet();
+                    return;
+                }
+                workplace.use();
+                for (int j = 0; j < SWITCHES; j++) {
+                    target = workplaces.get(random.nextInt(WORKPLACES));
+                    Workplace switched;
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            switched = workshop.switchTo(target.getId());
+                            break;
+                        case 1:
+                            switched = workshop.trySwitchTo(target.getId());
+                            break;
+                        default:
+                            switched = workshop.trySwitchTo(target.getId(),
+                                    random.nextLong(MAX_TIMEOUT_MICROS), TimeUnit.MICROSECONDS);
+                    }
+                    if (switched == null) {
+                        gaveUp.incrementAndGet();
+                    } else {
+                        workplace = switched;
+                    }
+                    workplace.use();
+                }
+                workshop.leave();
+            });
+        }
+        boolean finished = StressHarness.awaitTermination(executor, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else {
+            for (Workplace workplace : workplaces) {
+                if (workshop.tryEnter(workplace.getId()) == null) {
+                    report.fail(workplace.getId() + " is not free after every worker left");
+                    break;
+                }
+                workshop.leave();
+            }
+        }
+        System.out.println(workers + " workers finished in " + elapsed + "ms, giving up "
+                + gaveUp.get() + " times");
+        return StressHarness.finish(report);
+    }
+}
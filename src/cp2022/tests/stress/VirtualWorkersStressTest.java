@@ -0,0 +1,69 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.base.Workshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.OvertakeMonitor;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * 100k workers on 300 workplaces, each entering, switching a few times and
+ * leaving, all started at once. On JDK 21+ every worker is a virtual thread;
+ * older runtimes cannot create them, so the test falls back to a much smaller
+ * number of platform threads. It checks exclusive use of workplaces, the 2N
+ * bound (see OvertakeMonitor) and that every worker finishes.
+ */
+public class VirtualWorkersStressTest {
+    private static final int WORKPLACES = 300;
+    private static final int VIRTUAL_WORKERS = 100_000;
+    private static final int PLATFORM_WORKERS = 2_000;
+    private static final int SWITCHES = 3;
+    private static final long USE_NANOS = 20_000;
+    private static final long TIME_LIMIT_SECONDS = 300;
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(VirtualWorkersStressTest.class, engine);
+        ExecutorService executor = StressHarness.newWorkerExecutor();
+        int workers = StressHarness.workers(VIRTUAL_WORKERS, PLATFORM_WORKERS);
+
+        StressReport report = new StressReport();
+        OvertakeMonitor monitor = new OvertakeMonitor(workers, 2 * WORKPLACES, report);
+        List<Workplace> workplaces = StressHarness.newWorkplaces(WORKPLACES, USE_NANOS, report);
+        Workshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int request = monitor.enterRequested();
+                Workplace workplace = workshop.enter(workplaces.get(random.nextInt(WORKPLACES)).getId());
+                monitor.entered(request);
+                workplace.use();
+                for (int j = 0; j < SWITCHES; j++) {
+                    int entries = monitor.switchRequested();
+                    workplace = workshop.switchTo(workplaces.get(random.nextInt(WORKPLACES)).getId());
+                    monitor.switched(entries);
+                    workplace.use();
+                }
+                workshop.leave();
+            });
+        }
+        boolean finished = StressHarness.awaitTermination(executor, TIME_LIMIT_SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!finished) {
+            report.fail("workers did not finish within " + TIME_LIMIT_SECONDS + "s");
+        } else {
+            monitor.countOvertakes();
+        }
+        System.out.println(workers + " workers finished in " + elapsed + "ms, worst wait was "
+                + monitor.getWorst() + " entries (bound " + 2 * WORKPLACES + ")");
+        return StressHarness.finish(report);
+    }
+}
@@ -0,0 +1,120 @@
+package cp2022.tests.stress;
+
+import cp2022.base.Workplace;
+import cp2022.solution.TimedWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopFactory;
+import cp2022.tests.stress.shared.StressHarness;
+import cp2022.tests.stress.shared.StressReport;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * A worker switches away from its workplace and then, before it calls into the
+ * workshop again, waits for whoever takes that workplace after it. The new
+ * occupant must be able to use the workplace, switch away from it or try to,
+ * without the previous one ever coming back. Each way is tried many times,
+ * with the new occupant entering after the switch and queued for the
+ * workplace before it, so that it gets the workplace both ways. Only a queued
+ * occupant that uses the workplace is left out: one that was handed the
+ * workplace waits for the previous one to call into the workshop again.
+ */
+public class WaitingPredecessorStressTest {
+    private static final int ROUNDS = 300;
+    private static final long USE_NANOS = 10_000;
+    private static final long ROUND_LIMIT_MILLIS = 5_000;
+
+    private enum Successor {
+        USES, SWITCHES, TRIES_TO_SWITCH
+    }
+
+    public static boolean run(WorkshopEngine engine) {
+        StressHarness.announce(WaitingPredecessorStressTest.class, engine);
+        StressReport report = new StressReport();
+        long start = System.currentTimeMillis();
+        int round = 0;
+        while (round < ROUNDS && !report.failed()) {
+            Successor successor = Successor.values()[round % Successor.values().length];
+            boolean queued = round / Successor.values().length % 2 == 0;
+            if (!queued || successor != Successor.USES) {
+                runRound(engine, successor, queued, report);
+            }
+            round++;
+        }
+        System.out.println(round + " rounds finished in " + (System.currentTimeMillis() - start) + "ms");
+        return StressHarness.finish(report);
+    }
+
+    private static void runRound(WorkshopEngine engine, Successor successor, boolean queued, StressReport report) {
+        List<Workplace> workplaces = StressHarness.newWorkplaces(3, USE_NANOS, report);
+        TimedWorkshop workshop = WorkshopFactory.newWorkshop(workplaces, engine);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch switched = new CountDownLatch(1);
+        CountDownLatch successorDone = new CountDownLatch(1);
+        AtomicBoolean entering = new AtomicBoolean(false);
+
+        Thread next = new Thread(() -> {
+            await(queued ? entered : switched);
+            entering.set(true);
+            Workplace workplace = workshop.enter(workplaces.get(0).getId());
+            if (successor == Successor.SWITCHES) {
+                workplace = workshop.switchTo(workplaces.get(2).getId());
+            } else if (successor == Successor.TRIES_TO_SWITCH) {
+                Workplace moved = workshop.trySwitchTo(workplaces.get(2).getId(), 1, TimeUnit.SECONDS);
+                if (moved == null) {
+                    report.fail("a switch to a free workplace gave up");
+                } else {
+                    workplace = moved;
+                }
+            }
+            workplace.use();
+            successorDone.countDown();
+            workshop.leave();
+        });
+        Thread previous = new Thread(() -> {
+            workshop.enter(workplaces.get(0).getId()).use();
+            entered.countDown();
+            if (queued) {
+                // Until the next occupant waits for the workplace.
+                while (!entering.get() || next.getState() != Thread.State.WAITING) {
+                    Thread.yield();
+                }
+            }
+            Workplace workplace = workshop.switchTo(workplaces.get(1).getId());
+            switched.countDown();
+            await(successorDone);
+            workplace.use();
+            workshop.leave();
+        });
+        Thread[] threads = {previous, next};
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long deadline = System.currentTimeMillis() + ROUND_LIMIT_MILLIS;
+        for (Thread thread : threads) {
+            try {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption");
+            }
+            if (thread.isAlive()) {
+                // The stuck threads are daemons and stay behind.
+                report.fail("stuck with the next occupant " + successor
+                        + (queued ? ", queued before the switch" : ", entering after the switch"));
+                return;
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cp2022.tests.stress.shared;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Checks the starvation bound of SimulationWithBugCheck without its
+ * per-entry scan over all pending requests, which does not scale to 100k
+ * workers. Requests are numbered in the order they are made and entries are
+ * logged in the order they are made; countOvertakes() then replays the log
+ * over a Fenwick tree indexed by request number, so counting the entries made
+ * after a given request takes O(log n).
+ *
+ * Nothing here takes a lock. A worker waiting for one between the workshop
+ * and the monitor, or woken by another one's unlock just after taking its
+ * number, would have every entry made meanwhile counted against its own wait,
+ * and with far more workers than cores that can be ms worth of entries.
+ *
+ * With more simultaneous entrants than 2N nobody can promise that a request
+ * sees fewer than 2N entries before its own, so for enter() only overtakes
+ * are counted: entries by workers whose request came later. For switchTo()
+ * every entry after the request counts, as in SimulationWithBugCheck.
+ * A crew counts as one entry per member, as CrewWorkshop promises, and is
+ * overtaken no more often than a single entrant.
+ */
+public class OvertakeMonitor {
+    private final int[] loggedRequests;
+    private final int[] loggedEntrants;
+    private final boolean[] loggedUnchecked;
+    private final StressReport report;
+    private final int bound;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger logged = new AtomicInteger();
+    private final AtomicInteger entries = new AtomicInteger();
+    private final AtomicInteger worst = new AtomicInteger();
+
+    public OvertakeMonitor(int maxRequests, int bound, StressReport report) {
+        this.loggedRequests = new int[maxRequests];
+        this.loggedEntrants = new int[maxRequests];
+        this.loggedUnchecked = new boolean[maxRequests];
+        this.bound = bound;
+        this.report = report;
+    }
+
+    // Returns the request number to pass to entered().
+    public int enterRequested() {
+        return requests.incrementAndGet();
+    }
+
+    public void entered(int request) {
+        log(request, 1, false);
+    }
+
+    // Counts the entry against the others, but not its own wait.
+    public void enteredUnchecked(int request) {
+        log(request, 1, true);
+    }
+
+    // Counts one entry per member, and checks the crew's wait like an enter's.
+    public void crewEntered(int request, int members) {
+        log(request, members, false);
+    }
+
+    public void crewEnteredUnchecked(int request, int members) {
+        log(request, members, true);
+    }
+
+    // Returns the entry count to pass to switched().
+    public int switchRequested() {
+        return entries.get();
+    }
+
+    public void switched(int entriesAtRequest) {
+        check(entries.get() - entriesAtRequest, "switchTo");
+    }
+
+    // Called once every worker is done; checks the waits of all enter requests.
+    public void countOvertakes() {
+        int[] tree = new int[requests.get() + 1];
+        int counted = 0;
+        for (int i = 0, n = logged.get(); i < n; i++) {
+            int request = loggedRequests[i];
+            int entrants = loggedEntrants[i];
+            if (!loggedUnchecked[i]) {
+                check(counted - prefix(tree, request), "enter");
+            }
+            counted += entrants;
+            for (int j = request; j < tree.length; j += j & -j) {
+                tree[j] += entrants;
+            }
+        }
+    }
+
+    public int getWorst() {
+        return worst.get();
+    }
+
+    private void log(int request, int entrants, boolean unchecked) {
+        int i = logged.getAndIncrement();
+        loggedRequests[i] = request;
+        loggedEntrants[i] = entrants;
+        loggedUnchecked[i] = unchecked;
+        entries.addAndGet(entrants);
+    }
+
+    private static int prefix(int[] tree, int request) {
+        int sum = 0;
+        for (int i = request; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private void check(int overtakes, String operation) {
+        worst.accumulateAndGet(overtakes, Math::max);
+        if (overtakes >= bound) {
+            report.fail(overtakes + " workers entered while a " + operation + " request waited");
+        }
+    }
+}
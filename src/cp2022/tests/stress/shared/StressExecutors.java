@@ -0,0 +1,18 @@
+package cp2022.tests.stress.shared;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class StressExecutors {
+
+    // Executors.newVirtualThreadPerTaskExecutor() exists from JDK 21 on; the
+    // sources stay buildable on older JDKs, so it is looked up reflectively.
+    // Returns null when virtual threads are not available.
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package cp2022.tests.stress.shared;
+
+import cp2022.base.Workplace;
+import cp2022.base.WorkplaceId;
+import cp2022.solution.SessionWorkshop;
+import cp2022.solution.WorkshopEngine;
+import cp2022.solution.WorkshopSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * What every stress test does around its own load: it announces itself, sets
+ * up its workplaces, runs its workers on virtual threads, or on far fewer
+ * platform threads where the runtime has none, waits for them within its time
+ * limit, and prints whether it passed.
+ */
+public class StressHarness {
+    private static final boolean VIRTUAL_THREADS = hasVirtualThreads();
+
+    public static void announce(Class<?> test, WorkshopEngine engine) {
+        System.out.println("\nRunning test: " + test.getSimpleName() + " (" + engine + ")");
+        if (!VIRTUAL_THREADS) {
+            System.out.println("Virtual threads are not available, falling back to fewer platform threads.");
+        }
+    }
+
+    // Picks the number of workers for the threads newWorkerExecutor runs them on.
+    public static int workers(int onVirtualThreads, int onPlatformThreads) {
+        return VIRTUAL_THREADS ? onVirtualThreads : onPlatformThreads;
+    }
+
+    // Workplaces numbered from 0, each of which takes useNanos to use.
+    public static List<Workplace> newWorkplaces(int count, long useNanos, StressReport report) {
+        List<Workplace> workplaces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            workplaces.add(new StressWorkplace(i, useNanos, report));
+        }
+        return workplaces;
+    }
+
+    public static WorkplaceId randomId(List<Workplace> workplaces) {
+        return workplaces.get(ThreadLocalRandom.current().nextInt(workplaces.size())).getId();
+    }
+
+    // A virtual thread per task, or a cached pool of platform threads.
+    public static ExecutorService newWorkerExecutor() {
+        ExecutorService executor = StressExecutors.newVirtualThreadExecutor();
+        return executor != null ? executor : Executors.newCachedThreadPool();
+    }
+
+    // Shuts the executor down and waits for its tasks; those still running at
+    // the time limit are interrupted. Returns whether all of them finished.
+    public static boolean awaitTermination(ExecutorService executor, long timeLimitSeconds) {
+        executor.shutdown();
+        boolean finished;
+        try {
+            finished = executor.awaitTermination(timeLimitSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+        if (!finished) {
+            executor.shutdownNow();
+        }
+        return finished;
+    }
+
+    public static boolean await(CountDownLatch done, long timeLimitSeconds) {
+        try {
+            return done.await(timeLimitSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    // Runs the action on a daemon thread, which is left behind if it is stuck.
+    // Returns whether it finished within the time limit.
+    public static boolean completesWithin(Runnable action, long timeLimitMillis) {
+        Thread thread = new Thread(action);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(timeLimitMillis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+        return !thread.isAlive();
+    }
+
+    // Enters and leaves every workplace in turn, each of which must be free.
+    public static void checkAllFree(SessionWorkshop workshop, List<Workplace> workplaces, StressReport report) {
+        WorkshopSession checker = workshop.newSession();
+        for (Workplace workplace : workplaces) {
+            if (!completesWithin(() -> checker.enter(workplace.getId()), TimeUnit.SECONDS.toMillis(1))) {
+                report.fail(workplace.getId() + " is not free after every worker left");
+                return;
+            }
+            checker.leave();
+        }
+    }
+
+    public static boolean finish(StressReport report) {
+        if (report.failed()) {
+            System.out.println("FAILED: " + report.getFailure());
+            return false;
+        }
+        System.out.println("PASSED");
+        return true;
+    }
+
+    private static boolean hasVirtualThreads() {
+        ExecutorService executor = StressExecutors.newVirtualThreadExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+}
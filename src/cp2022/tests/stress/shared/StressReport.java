@@ -0,0 +1,19 @@
+package cp2022.tests.stress.shared;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StressReport {
+    private final AtomicReference<String> failure = new AtomicReference<>();
+
+    public void fail(String message) {
+        failure.compareAndSet(null, message);
+    }
+
+    public boolean failed() {
+        return failure.get() != null;
+    }
+
+    public String getFailure() {
+        return failure.get();
+    }
+}
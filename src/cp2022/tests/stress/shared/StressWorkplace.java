@@ -0,0 +1,34 @@
+package cp2022.tests.stress.shared;
+
+import cp2022.base.Workplace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Records a violation instead of throwing, so that one failure does not leave
+// the remaining workers waiting forever for a worker that died.
+public class StressWorkplace extends Workplace {
+    private final StressReport report;
+    private final long useNanos;
+    private final AtomicInteger users = new AtomicInteger(0);
+
+    public StressWorkplace(int id, long useNanos, StressReport report) {
+        super(new StressWorkplaceId(id));
+        this.useNanos = useNanos;
+        this.report = report;
+    }
+
+    @Override
+    public void use() {
+        if (!users.compareAndSet(0, 1)) {
+            report.fail("two workers use " + getId() + " at the same time");
+            return;
+        }
+        if (useNanos > 0) {
+            LockSupport.parkNanos(useNanos);
+        } else {
+            Thread.yield();
+        }
+        users.set(0);
+    }
+}
@@ -0,0 +1,35 @@
+package cp2022.tests.stress.shared;
+
+import cp2022.base.WorkplaceId;
+
+public class StressWorkplaceId extends WorkplaceId {
+    private final int id;
+
+    public StressWorkplaceId(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public int compareTo(WorkplaceId other) {
+        return Integer.compare(id, ((StressWorkplaceId) other).id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof StressWorkplaceId && ((StressWorkplaceId) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "workplace " + id;
+    }
+}